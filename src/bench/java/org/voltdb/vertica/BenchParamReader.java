@@ -0,0 +1,80 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import com.vertica.sdk.ParamReader;
+import com.vertica.sdk.UdfException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * USING PARAMETERS of a UDx running outside Vertica. Missing parameters
+ * throw UdfException like the Vertica parameter reader.
+ */
+public class BenchParamReader extends ParamReader {
+
+    private final Map<String, Object> m_params = new HashMap<String, Object>();
+
+    public BenchParamReader set(String name, Object value) {
+        m_params.put(name, value);
+        return this;
+    }
+
+    private Object get(String name) {
+        Object value = m_params.get(name);
+        if (value == null) {
+            throw new UdfException(0, "Parameter not found: " + name);
+        }
+        return value;
+    }
+
+    @Override
+    public int getNumCols() {
+        return m_params.size();
+    }
+
+    @Override
+    public boolean containsParameter(String name) {
+        return m_params.containsKey(name);
+    }
+
+    @Override
+    public String getString(String name) {
+        return get(name).toString();
+    }
+
+    @Override
+    public long getLong(String name) {
+        return ((Number) get(name)).longValue();
+    }
+
+    @Override
+    public double getDouble(String name) {
+        return ((Number) get(name)).doubleValue();
+    }
+
+    @Override
+    public boolean getBoolean(String name) {
+        return (Boolean) get(name);
+    }
+}
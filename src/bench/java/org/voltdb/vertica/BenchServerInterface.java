@@ -0,0 +1,58 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import com.vertica.sdk.ParamReader;
+import com.vertica.sdk.ServerInterface;
+
+/**
+ * Server interface of a UDx running outside Vertica. Log messages are
+ * dropped unless verbose.
+ */
+public class BenchServerInterface extends ServerInterface {
+
+    private final ParamReader m_params;
+    private final boolean m_verbose;
+
+    public BenchServerInterface(ParamReader params, boolean verbose) {
+        m_params = params;
+        m_verbose = verbose;
+    }
+
+    @Override
+    public void log(String format, Object... args) {
+        if (m_verbose) {
+            System.err.println(String.format(format, args));
+        }
+    }
+
+    @Override
+    public ParamReader getParamReader() {
+        return m_params;
+    }
+
+    @Override
+    public String getCurrentNodeName() {
+        return "bench";
+    }
+}
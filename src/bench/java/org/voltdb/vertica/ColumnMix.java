@@ -0,0 +1,180 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import com.vertica.sdk.SizedColumnTypes;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Column mixes of the synthetic blocks, after the column types in
+ * src/test/scripts/test.sql.
+ */
+public enum ColumnMix {
+    INTS(ColumnKind.BIGINT),
+    STRINGS(ColumnKind.VARCHAR),
+    TIMESTAMPS(ColumnKind.TIMESTAMP),
+    DATES(ColumnKind.DATE),
+    BOOLEANS(ColumnKind.BOOLEAN),
+    DOUBLES(ColumnKind.FLOAT),
+    MIXED(ColumnKind.BOOLEAN, ColumnKind.VARCHAR, ColumnKind.VARCHAR, ColumnKind.DATE,
+            ColumnKind.TIMESTAMP, ColumnKind.FLOAT, ColumnKind.BIGINT, ColumnKind.BIGINT);
+
+    //Columns of the single type mixes.
+    static final int COLUMNS = 8;
+
+    enum ColumnKind {
+        BIGINT, VARCHAR, TIMESTAMP, DATE, BOOLEAN, FLOAT
+    }
+
+    private final ColumnKind[] m_kinds;
+
+    private ColumnMix(ColumnKind... kinds) {
+        if (kinds.length == 1) {
+            m_kinds = new ColumnKind[COLUMNS];
+            Arrays.fill(m_kinds, kinds[0]);
+        } else {
+            m_kinds = kinds;
+        }
+    }
+
+    public int getColumnCount() {
+        return m_kinds.length;
+    }
+
+    public SizedColumnTypes types() {
+        return types(false);
+    }
+
+    /**
+     * @param keyed prepend a BIGINT key column.
+     */
+    public SizedColumnTypes types(boolean keyed) {
+        SizedColumnTypes types = new SizedColumnTypes();
+        if (keyed) {
+            types.addInt("k");
+        }
+        for (int i = 0; i < m_kinds.length; i++) {
+            String name = "c" + (i + 1);
+            switch (m_kinds[i]) {
+            case BIGINT:
+                types.addInt(name);
+                break;
+            case VARCHAR:
+                types.addVarchar(16, name);
+                break;
+            case TIMESTAMP:
+                types.addTimestamp(6, name);
+                break;
+            case DATE:
+                types.addDate(name);
+                break;
+            case BOOLEAN:
+                types.addBool(name);
+                break;
+            case FLOAT:
+                types.addFloat(name);
+                break;
+            }
+        }
+        return types;
+    }
+
+    /**
+     * @param key value of the first integer column, e.g. a row number.
+     * @return values of a row as the Vertica reader returns them.
+     */
+    public Object[] row(Random random, long key) {
+        return row(random, key, false);
+    }
+
+    /**
+     * @param keyed prepend the key as a BIGINT column.
+     */
+    public Object[] row(Random random, long key, boolean keyed) {
+        int offset = keyed ? 1 : 0;
+        Object[] vals = new Object[m_kinds.length + offset];
+        if (keyed) {
+            vals[0] = key;
+        }
+        for (int i = 0; i < m_kinds.length; i++) {
+            switch (m_kinds[i]) {
+            case BIGINT:
+                vals[i + offset] = keyed ? (long) random.nextInt(1000000) : key;
+                keyed = true;
+                break;
+            case VARCHAR:
+                vals[i + offset] = Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+                break;
+            case TIMESTAMP:
+                Timestamp ts = new Timestamp(1409737559000L + random.nextInt(1000000) * 1000L);
+                ts.setNanos(random.nextInt(1000000) * 1000);
+                vals[i + offset] = ts;
+                break;
+            case DATE:
+                vals[i + offset] = new Date(1412899200000L + random.nextInt(10000) * 86400000L);
+                break;
+            case BOOLEAN:
+                vals[i + offset] = random.nextBoolean();
+                break;
+            case FLOAT:
+                vals[i + offset] = random.nextDouble() * 10000;
+                break;
+            }
+        }
+        return vals;
+    }
+
+    /**
+     * @return VoltDB DDL of a table the keyed rows load into, partitioned
+     * on the key.
+     */
+    public String ddl(String table) {
+        StringBuilder sb = new StringBuilder("CREATE TABLE ").append(table).append(" (k BIGINT NOT NULL");
+        for (int i = 0; i < m_kinds.length; i++) {
+            sb.append(", c").append(i + 1).append(' ');
+            switch (m_kinds[i]) {
+            case BIGINT:
+                sb.append("BIGINT");
+                break;
+            case VARCHAR:
+                sb.append("VARCHAR(32)");
+                break;
+            case TIMESTAMP:
+            case DATE:
+                sb.append("TIMESTAMP");
+                break;
+            case BOOLEAN:
+                sb.append("TINYINT");
+                break;
+            case FLOAT:
+                sb.append("FLOAT");
+                break;
+            }
+        }
+        sb.append(", PRIMARY KEY (k));\nPARTITION TABLE ").append(table).append(" ON COLUMN k;\n");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,184 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * TCP proxy in front of a VoltDB server that adds latency to responses and
+ * limits the bandwidth of requests. The wire protocol passes through
+ * unchanged, a slow request direction fills the client's buffers and puts
+ * it into backpressure like an overloaded cluster does.
+ */
+public class DelayProxy {
+
+    private static final int CHUNK = 64 * 1024;
+
+    private final String m_host;
+    private final int m_port;
+    private final long m_latencyNanos;
+    //Bytes per second towards the server, 0 for unlimited.
+    private final long m_bandwidth;
+    private final ServerSocket m_listener;
+    private volatile boolean m_closed = false;
+
+    public DelayProxy(String host, int port, long latencyMillis, long bandwidth) throws IOException {
+        m_host = host;
+        m_port = port;
+        m_latencyNanos = latencyMillis * 1000000;
+        m_bandwidth = bandwidth;
+        m_listener = new ServerSocket();
+        m_listener.bind(new InetSocketAddress("localhost", 0));
+        daemon("DelayProxy accept", new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    /**
+     * @return server to give the client, host:port.
+     */
+    public String getAddress() {
+        return "localhost:" + m_listener.getLocalPort();
+    }
+
+    public void close() throws IOException {
+        m_closed = true;
+        m_listener.close();
+    }
+
+    private void accept() {
+        while (!m_closed) {
+            try {
+                final Socket client = m_listener.accept();
+                final Socket server = new Socket(m_host, m_port);
+                client.setTcpNoDelay(true);
+                server.setTcpNoDelay(true);
+                daemon("DelayProxy request", new Runnable() {
+                    @Override
+                    public void run() {
+                        requests(client, server);
+                    }
+                });
+                daemon("DelayProxy response", new Runnable() {
+                    @Override
+                    public void run() {
+                        responses(server, client);
+                    }
+                });
+            } catch (IOException ex) {
+                if (!m_closed) {
+                    System.err.println("DelayProxy accept failed: " + ex);
+                }
+            }
+        }
+    }
+
+    private void requests(Socket from, Socket to) {
+        byte[] buf = new byte[CHUNK];
+        try {
+            InputStream in = from.getInputStream();
+            OutputStream out = to.getOutputStream();
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+                out.flush();
+                if (m_bandwidth > 0) {
+                    Thread.sleep(n * 1000L / m_bandwidth);
+                }
+            }
+        } catch (Exception ex) {
+            //Connection closed.
+        } finally {
+            closeQuietly(from);
+            closeQuietly(to);
+        }
+    }
+
+    //Chunks are read as they arrive and each is written after the latency.
+    private void responses(final Socket from, final Socket to) {
+        final BlockingQueue<Object[]> delayed = new LinkedBlockingQueue<Object[]>();
+        daemon("DelayProxy delay", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    OutputStream out = to.getOutputStream();
+                    while (true) {
+                        Object[] chunk = delayed.take();
+                        if (chunk.length == 0) {
+                            break;
+                        }
+                        long wait = (Long) chunk[0] - System.nanoTime();
+                        if (wait > 0) {
+                            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                        }
+                        out.write((byte[]) chunk[1]);
+                        out.flush();
+                    }
+                } catch (Exception ex) {
+                    //Connection closed.
+                } finally {
+                    closeQuietly(from);
+                    closeQuietly(to);
+                }
+            }
+        });
+        byte[] buf = new byte[CHUNK];
+        try {
+            InputStream in = from.getInputStream();
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                byte[] chunk = new byte[n];
+                System.arraycopy(buf, 0, chunk, 0, n);
+                delayed.add(new Object[] { System.nanoTime() + m_latencyNanos, chunk });
+            }
+        } catch (IOException ex) {
+            //Connection closed.
+        } finally {
+            delayed.add(new Object[0]);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            ;
+        }
+    }
+
+    private static void daemon(String name, Runnable runnable) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
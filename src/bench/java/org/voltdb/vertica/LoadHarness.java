@@ -0,0 +1,289 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import com.vertica.sdk.ScalarFunction;
+import com.vertica.sdk.SizedColumnTypes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import org.voltdb.InProcessVoltDBServer;
+import org.voltdb.client.Client;
+import org.voltdb.client.ClientConfig;
+import org.voltdb.client.ClientFactory;
+
+/**
+ * End to end throughput harness. Feeds synthetic Vertica blocks through
+ * voltdbload or voltdbcall into an in process VoltDB server, or a running
+ * one, behind a proxy that adds latency and limits bandwidth. Duplicate
+ * keys make a share of the rows fail. Reports rows/sec, latency
+ * percentiles and failures, and exits with 1 if a threshold is missed so it
+ * can gate a release.
+ *
+ * Options, as --name=value:
+ * mode - table, procedure, call or async (default table).
+ * mix - column mix of the rows, see ColumnMix (default MIXED).
+ * rows - rows per invocation (default 1000000).
+ * block - rows per block (default 1024).
+ * threads - concurrent invocations, like Vertica UDx instances (default 4).
+ * batchsize, connections, senders, window, adaptive, autobatchsize - function
+ * parameters.
+ * servers - VoltDB server to load into instead of an in process one.
+ * partitions - partitions of the in process server (default 8).
+ * latency - milliseconds added to every response (default 0).
+ * bandwidth - request bytes/sec per connection, 0 for unlimited (default 0).
+ * errors - fraction of rows with a duplicate key (default 0).
+ * minrate - fail below this many rows/sec (default 0).
+ * maxp99 - fail above this p99 latency in milliseconds (default 0, off).
+ */
+public class LoadHarness {
+
+    private static final String TABLE = "HARNESS";
+
+    private final Map<String, String> m_options;
+
+    private LoadHarness(Map<String, String> options) {
+        m_options = options;
+    }
+
+    private String option(String name, String defaultValue) {
+        String value = m_options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    private long option(String name, long defaultValue) {
+        return Long.parseLong(option(name, Long.toString(defaultValue)));
+    }
+
+    private double option(String name, double defaultValue) {
+        return Double.parseDouble(option(name, Double.toString(defaultValue)));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                System.err.println("Usage: LoadHarness [--name=value ...], see the class comment for options.");
+                System.exit(2);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        System.exit(new LoadHarness(options).run() ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        final String mode = option("mode", "table");
+        ColumnMix mix = ColumnMix.valueOf(option("mix", "MIXED").toUpperCase());
+        int threads = (int) option("threads", 4);
+        long rows = option("rows", 1000000);
+        int block = (int) option("block", 1024);
+
+        InProcessVoltDBServer embedded = null;
+        String upstream = option("servers", "");
+        if (upstream.isEmpty()) {
+            embedded = new InProcessVoltDBServer().configPartitionCount((int) option("partitions", 8)).start();
+            embedded.runDDLFromString(mix.ddl(TABLE));
+            upstream = "localhost:21212";
+        } else {
+            adhoc(upstream, "DROP TABLE " + TABLE + " IF EXISTS;\n" + mix.ddl(TABLE));
+        }
+        adhoc(upstream, "TRUNCATE TABLE " + TABLE + ";");
+
+        DelayProxy proxy = null;
+        String servers = upstream;
+        long latency = option("latency", 0L);
+        long bandwidth = option("bandwidth", 0L);
+        if (latency > 0 || bandwidth > 0) {
+            String[] hostPort = upstream.split(",")[0].split(":");
+            proxy = new DelayProxy(hostPort[0], hostPort.length > 1 ? Integer.parseInt(hostPort[1]) : 21212, latency, bandwidth);
+            servers = proxy.getAddress();
+        }
+
+        System.out.printf("Generating %d blocks of %d %s rows%n", threads * ((rows + block - 1) / block), block, mix);
+        double errors = option("errors", 0.0);
+        List<List<SyntheticBlockReader>> blocks = new ArrayList<List<SyntheticBlockReader>>();
+        for (int t = 0; t < threads; t++) {
+            List<SyntheticBlockReader> readers = new ArrayList<SyntheticBlockReader>();
+            for (long first = 0; first < rows; first += block) {
+                int n = (int) Math.min(block, rows - first);
+                readers.add(new SyntheticBlockReader(mix, n, t * 31 + first, t * rows + first, true, errors));
+            }
+            blocks.add(readers);
+        }
+
+        long lastId = 0;
+        for (LoadStats stats : LoadStats.recent()) {
+            lastId = Math.max(lastId, stats.getId());
+        }
+        final SyntheticBlockWriter[] writers = new SyntheticBlockWriter[threads];
+        final Exception[] failures = new Exception[threads];
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            final List<SyntheticBlockReader> readers = blocks.get(t);
+            final BenchServerInterface si = new BenchServerInterface(parameters(mode, servers), false);
+            writers[t] = new SyntheticBlockWriter();
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        invoke(si, mode, readers, writers[thread]);
+                    } catch (Exception ex) {
+                        failures[thread] = ex;
+                    }
+                }
+            }, "UDx instance " + t);
+            worker.start();
+            workers.add(worker);
+        }
+
+        long startNanos = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        double elapsed = (System.nanoTime() - startNanos) / 1e9;
+
+        boolean passed = report(mode, lastId, writers, failures, threads * rows, elapsed);
+        if (proxy != null) {
+            proxy.close();
+        }
+        if (embedded != null) {
+            embedded.shutdown();
+        }
+        return passed;
+    }
+
+    private BenchParamReader parameters(String mode, String servers) {
+        BenchParamReader params = new BenchParamReader().set("voltservers", servers).set("maxerrors", 0L);
+        if (mode.equals("table")) {
+            params.set("volttable", TABLE);
+        } else {
+            params.set("procedure", TABLE + ".insert");
+            //Keyed rows lead with their key, senders keep the rows of a key in order.
+            params.set("orderkey", "1");
+        }
+        if (mode.equals("async")) {
+            params.set("async", true);
+        }
+        for (String name : new String[] { "batchsize", "connections", "senders", "window" }) {
+            if (m_options.containsKey(name)) {
+                params.set(name, Long.parseLong(m_options.get(name)));
+            }
+        }
+        for (String name : new String[] { "adaptive", "autobatchsize" }) {
+            if (m_options.containsKey(name)) {
+                params.set(name, Boolean.parseBoolean(m_options.get(name)));
+            }
+        }
+        return params;
+    }
+
+    //One UDx instance: create, process every block, destroy.
+    private static void invoke(BenchServerInterface si, String mode, List<SyntheticBlockReader> readers,
+            SyntheticBlockWriter writer) throws Exception {
+        ScalarFunction function = mode.equals("call") || mode.equals("async")
+                ? new VoltDBCall().createScalarFunction(si)
+                : new VoltDBLoader().createScalarFunction(si);
+        SizedColumnTypes types = readers.get(0).getTypeMetaData();
+        function.setup(si, types);
+        try {
+            for (SyntheticBlockReader reader : readers) {
+                function.processBlock(si, reader, writer);
+            }
+        } finally {
+            function.destroy(si, types);
+        }
+    }
+
+    private boolean report(String mode, long lastId, SyntheticBlockWriter[] writers, Exception[] failures,
+            long expected, double elapsed) {
+        long written = 0;
+        long statusFailed = 0;
+        for (SyntheticBlockWriter writer : writers) {
+            written += writer.getRows();
+            statusFailed += writer.getFailed();
+        }
+        double failed = 0;
+        double p50 = 0;
+        double p99 = 0;
+        double p999 = 0;
+        double max = 0;
+        double backpressure = 0;
+        for (LoadStats stats : LoadStats.recent()) {
+            if (stats.getId() <= lastId) {
+                continue;
+            }
+            Map<String, Double> m = stats.snapshot();
+            failed += m.get("rows_failed");
+            p50 = Math.max(p50, m.get("latency_p50_ms"));
+            p99 = Math.max(p99, m.get("latency_p99_ms"));
+            p999 = Math.max(p999, m.get("latency_p999_ms"));
+            max = Math.max(max, m.get("latency_max_ms"));
+            backpressure += m.get("backpressure_rows");
+        }
+        double rate = written / elapsed;
+        System.out.printf("mode=%s rows=%d elapsed=%.2fs rows/sec=%.0f%n", mode, written, elapsed, rate);
+        System.out.printf("latency ms: p50=%.2f p99=%.2f p999=%.2f max=%.2f (worst invocation)%n", p50, p99, p999, max);
+        System.out.printf("failed rows=%.0f status 1 rows=%d backpressured rows=%.0f%n", failed, statusFailed, backpressure);
+
+        boolean passed = true;
+        for (Exception failure : failures) {
+            if (failure != null) {
+                System.out.println("FAILED: invocation threw " + failure);
+                passed = false;
+            }
+        }
+        if (written != expected) {
+            System.out.printf("FAILED: %d status rows written, expected %d%n", written, expected);
+            passed = false;
+        }
+        long minRate = option("minrate", 0L);
+        if (rate < minRate) {
+            System.out.printf("FAILED: %.0f rows/sec is below %d%n", rate, minRate);
+            passed = false;
+        }
+        double maxP99 = option("maxp99", 0.0);
+        if (maxP99 > 0 && p99 > maxP99) {
+            System.out.printf("FAILED: p99 latency %.2f ms is above %.2f ms%n", p99, maxP99);
+            passed = false;
+        }
+        return passed;
+    }
+
+    private static void adhoc(String servers, String sql) throws Exception {
+        Client client = ClientFactory.createClient(new ClientConfig("", ""));
+        try {
+            for (String server : servers.split(",")) {
+                client.createConnection(server.trim());
+            }
+            client.callProcedure("@AdHoc", sql);
+        } finally {
+            client.close();
+        }
+    }
+}
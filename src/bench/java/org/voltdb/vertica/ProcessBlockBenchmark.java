@@ -0,0 +1,156 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.voltdb.utils.CSVDataLoader;
+import org.voltdb.vertica.VoltDBLoader.VerticaBulkLoaderErrorHandler;
+
+/**
+ * Time per row of voltdbload and voltdbcall processBlock over synthetic
+ * blocks, against stand-in loaders and clients that acknowledge every row
+ * at once. Run with -prof gc for allocation per row and GC counts, the
+ * bench target of build.xml does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcessBlockBenchmark {
+
+    static final int BLOCK_ROWS = 1024;
+
+    @Param({"INTS", "STRINGS", "TIMESTAMPS", "DATES", "BOOLEANS", "DOUBLES", "MIXED"})
+    public ColumnMix mix;
+
+    //Sender threads of voltdbload, 0 sends on the calling thread.
+    @Param({"0"})
+    public int senders;
+
+    //Fraction of rows repeating an earlier key, for voltdbload with a coalescekey.
+    @Param({"0.5"})
+    public double duplicates;
+
+    private BenchServerInterface m_si;
+    private SyntheticBlockReader m_reader;
+    private SyntheticBlockWriter m_writer;
+    private LoadSession m_session;
+    private VoltDBLoader.VoltLoader m_loader;
+    private SyntheticBlockReader m_keyedReader;
+    private VoltDBLoader.VoltLoader m_coalescing;
+    private VoltDBCall.VoltCall m_call;
+    private RowConverter m_converter;
+    private Object[] m_vals;
+
+    @Setup
+    public void setup() {
+        m_si = new BenchServerInterface(new BenchParamReader(), false);
+        m_reader = new SyntheticBlockReader(mix, BLOCK_ROWS, 42, 0);
+        m_writer = new SyntheticBlockWriter();
+
+        UdxLog log = new UdxLog(m_si, UdxLog.DEFAULT_LEVEL, UdxLog.DEFAULT_SAMPLE);
+        LoadStats stats = LoadStats.register("voltdbload", "T", 200);
+        m_session = new LoadSession(
+                new ClientCache.Handle[] { ClientCache.detached(StandIn.client()) },
+                new CSVDataLoader[] { StandIn.loader() },
+                "T", null, "T", new VerticaBulkLoaderErrorHandler(log, 0, stats, null), null, stats, log, senders, null, 0);
+        m_loader = new VoltDBLoader().new VoltLoader(m_session, null);
+        m_loader.setup(m_si, m_reader.getTypeMetaData());
+
+        m_keyedReader = new SyntheticBlockReader(mix, BLOCK_ROWS, 42, 0, true, duplicates);
+        LoadStats keyedStats = LoadStats.register("voltdbload", "T", 200);
+        LoadSession keyedSession = new LoadSession(
+                new ClientCache.Handle[] { ClientCache.detached(StandIn.client()) },
+                new CSVDataLoader[] { StandIn.loader() },
+                "T", null, "T", new VerticaBulkLoaderErrorHandler(log, 0, keyedStats, null), null, keyedStats, log, senders, new int[] { 0 }, 0);
+        m_coalescing = new VoltDBLoader().new VoltLoader(keyedSession, new KeyCoalescer(new int[] { 0 }));
+        m_coalescing.setup(m_si, m_keyedReader.getTypeMetaData());
+
+        UdxLog callLog = new UdxLog(m_si, UdxLog.DEFAULT_LEVEL, UdxLog.DEFAULT_SAMPLE);
+        m_call = new VoltDBCall().new VoltCall(ClientCache.detached(StandIn.client()), callLog, null);
+        m_call.setup(m_si, m_reader.getTypeMetaData());
+
+        m_converter = RowConverter.create(m_si, m_reader.getTypeMetaData());
+        m_vals = new Object[m_converter.getColumnCount()];
+    }
+
+    @TearDown
+    public void tearDown() {
+        m_loader.destroy(m_si, m_reader.getTypeMetaData());
+        m_coalescing.destroy(m_si, m_keyedReader.getTypeMetaData());
+        m_call.destroy(m_si, m_reader.getTypeMetaData());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK_ROWS)
+    public long voltdbload() throws Exception {
+        m_reader.rewind();
+        m_loader.processBlock(m_si, m_reader, m_writer);
+        return m_writer.getRows();
+    }
+
+    //Keyed rows collapsed by their BIGINT key before they are queued.
+    @Benchmark
+    @OperationsPerInvocation(BLOCK_ROWS)
+    public long voltdbloadCoalesced() throws Exception {
+        m_keyedReader.rewind();
+        m_coalescing.processBlock(m_si, m_keyedReader, m_writer);
+        return m_writer.getRows();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK_ROWS)
+    public long voltdbcall() throws Exception {
+        m_reader.rewind();
+        m_call.processBlock(m_si, m_reader, m_writer);
+        return m_writer.getRows();
+    }
+
+    //Conversion alone, as voltdbcall does it into a reused array.
+    @Benchmark
+    @OperationsPerInvocation(BLOCK_ROWS)
+    public long convert() {
+        m_reader.rewind();
+        long columns = 0;
+        do {
+            m_converter.convert(m_reader, m_vals);
+            columns += m_vals.length;
+        } while (m_reader.next());
+        return columns;
+    }
+}
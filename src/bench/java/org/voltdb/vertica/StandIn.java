@@ -0,0 +1,264 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.voltdb.ClientResponseImpl;
+import org.voltdb.VoltTable;
+import org.voltdb.client.AllPartitionProcedureCallback;
+import org.voltdb.client.Client;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ClientResponseWithPartitionKey;
+import org.voltdb.client.ClientStats;
+import org.voltdb.client.ClientStatsContext;
+import org.voltdb.client.ProcedureCallback;
+import org.voltdb.client.VoltBulkLoader.BulkLoaderFailureCallBack;
+import org.voltdb.client.VoltBulkLoader.BulkLoaderSuccessCallback;
+import org.voltdb.client.VoltBulkLoader.VoltBulkLoader;
+import org.voltdb.utils.CSVDataLoader;
+import org.voltdb.utils.RowWithMetaData;
+
+/**
+ * In process stand-ins for the VoltDB client and loaders that complete
+ * every call successfully without any network, so benchmarks only measure
+ * the UDx side of the hot path. They are plain classes rather than proxies
+ * so a call allocates nothing the UDx itself does not, and the allocation
+ * the GC profiler reports per row is the UDx's own. The client follows the
+ * VoltDB 8 client interface; methods that only some versions declare carry
+ * no {@code @Override}.
+ */
+public final class StandIn {
+
+    private static final ClientResponse SUCCESS =
+            new ClientResponseImpl(ClientResponse.SUCCESS, new VoltTable[0], null);
+
+    private static final List<InetSocketAddress> HOSTS =
+            Collections.singletonList(new InetSocketAddress("localhost", 21212));
+
+    private StandIn() {
+    }
+
+    /**
+     * @return a client that answers every procedure call with success.
+     */
+    public static Client client() {
+        return new StandInClient();
+    }
+
+    /**
+     * @return a loader that acknowledges every row as soon as it is inserted.
+     */
+    public static CSVDataLoader loader() {
+        return new StandInLoader();
+    }
+
+    private static boolean succeed(ProcedureCallback callback) {
+        try {
+            callback.clientCallback(SUCCESS);
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+        return true;
+    }
+
+    private static final class StandInLoader implements CSVDataLoader {
+
+        @Override
+        public void setFlushInterval(int delay, int seconds) {
+        }
+
+        @Override
+        public void insertRow(RowWithMetaData metaData, Object[] values) {
+            if (metaData.procedureCallback != null) {
+                succeed(metaData.procedureCallback);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public long getProcessedRows() {
+            return 0;
+        }
+
+        @Override
+        public long getFailedRows() {
+            return 0;
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+
+    private static final class StandInClient implements Client {
+
+        @Override
+        public void createConnection(String host) {
+        }
+
+        @Override
+        public void createConnection(String host, int port) {
+        }
+
+        @Override
+        public ClientResponse callProcedure(String procName, Object... parameters) {
+            return SUCCESS;
+        }
+
+        @Override
+        public boolean callProcedure(ProcedureCallback callback, String procName, Object... parameters) {
+            return succeed(callback);
+        }
+
+        @Override
+        public ClientResponse callProcedureWithTimeout(int queryTimeout, String procName, Object... parameters) {
+            return SUCCESS;
+        }
+
+        @Override
+        public boolean callProcedureWithTimeout(ProcedureCallback callback, int queryTimeout, String procName,
+                Object... parameters) {
+            return succeed(callback);
+        }
+
+        public ClientResponse callProcedureWithClientTimeout(int queryTimeout, String procName,
+                long clientTimeout, TimeUnit unit, Object... parameters) {
+            return SUCCESS;
+        }
+
+        public boolean callProcedureWithClientTimeout(ProcedureCallback callback, int queryTimeout,
+                String procName, long clientTimeout, TimeUnit unit, Object... parameters) {
+            return succeed(callback);
+        }
+
+        public ClientResponseWithPartitionKey[] callAllPartitionProcedure(String procName, Object... parameters) {
+            throw new UnsupportedOperationException();
+        }
+
+        public boolean callAllPartitionProcedure(AllPartitionProcedureCallback callback, String procName,
+                Object... parameters) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ClientResponse updateApplicationCatalog(File catalogPath, File deploymentPath) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean updateApplicationCatalog(ProcedureCallback callback, File catalogPath, File deploymentPath) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public ClientResponse updateClasses(File jarPath, String classesToDelete) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean updateClasses(ProcedureCallback callback, File jarPath, String classesToDelete) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void drain() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void backpressureBarrier() {
+        }
+
+        @Override
+        public ClientStatsContext createStatsContext() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Object[] getInstanceId() {
+            return new Object[0];
+        }
+
+        @Override
+        public String getBuildString() {
+            return "stand-in";
+        }
+
+        public void configureBlocking(boolean blocking) {
+        }
+
+        public boolean blocking() {
+            return false;
+        }
+
+        @Override
+        public int[] getThroughputAndOutstandingTxnLimits() {
+            return new int[] { -1, -1 };
+        }
+
+        @Override
+        public List<InetSocketAddress> getConnectedHostList() {
+            return HOSTS;
+        }
+
+        @Override
+        public boolean isAutoReconnectEnabled() {
+            return false;
+        }
+
+        @Override
+        public void writeSummaryCSV(ClientStats stats, String path) {
+        }
+
+        @Override
+        public void writeSummaryCSV(String statsRowName, ClientStats stats, String path) {
+        }
+
+        @Override
+        public VoltBulkLoader getNewBulkLoader(String tableName, int maxBatchSize, boolean upsert,
+                BulkLoaderFailureCallBack failureCallback) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public VoltBulkLoader getNewBulkLoader(String tableName, int maxBatchSize,
+                BulkLoaderFailureCallBack failureCallback) {
+            throw new UnsupportedOperationException();
+        }
+
+        public VoltBulkLoader getNewBulkLoader(String tableName, int maxBatchSize, boolean upsert,
+                BulkLoaderFailureCallBack failureCallback, BulkLoaderSuccessCallback successCallback) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import com.vertica.sdk.PartitionReader;
+import com.vertica.sdk.SizedColumnTypes;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.Random;
+
+/**
+ * In memory block of generated rows. Values are generated up front so
+ * reading them costs about as much as reading a Vertica block, and the
+ * same block can be rewound and read again.
+ */
+public class SyntheticBlockReader extends PartitionReader {
+
+    private final SizedColumnTypes m_types;
+    private final Object[][] m_rows;
+    private int m_row = 0;
+
+    /**
+     * @param firstKey key of the first row, rows are keyed sequentially.
+     */
+    public SyntheticBlockReader(ColumnMix mix, int rows, long seed, long firstKey) {
+        this(mix, rows, seed, firstKey, false, 0);
+    }
+
+    /**
+     * @param keyed prepend the key as a BIGINT column.
+     * @param duplicateRate fraction of rows that repeat the key of an
+     * earlier row of the block, to make inserts fail.
+     */
+    public SyntheticBlockReader(ColumnMix mix, int rows, long seed, long firstKey, boolean keyed, double duplicateRate) {
+        m_types = mix.types(keyed);
+        m_rows = new Object[rows][];
+        Random random = new Random(seed);
+        for (int i = 0; i < rows; i++) {
+            long key = firstKey + i;
+            if (i > 0 && random.nextDouble() < duplicateRate) {
+                key = firstKey + random.nextInt(i);
+            }
+            m_rows[i] = mix.row(random, key, keyed);
+        }
+    }
+
+    public void rewind() {
+        m_row = 0;
+    }
+
+    @Override
+    public int getNumCols() {
+        return m_types.getColumnCount();
+    }
+
+    @Override
+    public int getNumRows() {
+        return m_rows.length;
+    }
+
+    @Override
+    public SizedColumnTypes getTypeMetaData() {
+        return m_types;
+    }
+
+    @Override
+    public boolean next() {
+        if (m_row + 1 >= m_rows.length) {
+            return false;
+        }
+        m_row++;
+        return true;
+    }
+
+    private Object get(int i) {
+        return m_rows[m_row][i];
+    }
+
+    @Override
+    public long getLong(int i) {
+        return (Long) get(i);
+    }
+
+    @Override
+    public double getDouble(int i) {
+        return (Double) get(i);
+    }
+
+    @Override
+    public String getString(int i) {
+        return (String) get(i);
+    }
+
+    @Override
+    public boolean getBoolean(int i) {
+        return (Boolean) get(i);
+    }
+
+    @Override
+    public Timestamp getTimestamp(int i) {
+        return (Timestamp) get(i);
+    }
+
+    @Override
+    public Date getDate(int i) {
+        return (Date) get(i);
+    }
+
+    @Override
+    public boolean isDateNull(int i) {
+        return get(i) == null;
+    }
+}
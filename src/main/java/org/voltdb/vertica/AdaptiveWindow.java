@@ -0,0 +1,80 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+/**
+ * Additive increase, multiplicative decrease limit on outstanding calls. The
+ * limit doubles until the first sign of congestion and then grows by one per
+ * window of responses. It is halved, at most once per window, when the client
+ * reports backpressure or response latency climbs well above the lowest
+ * latency seen.
+ */
+final class AdaptiveWindow {
+
+    //Latency above this multiple of the best observed latency counts as congestion.
+    private static final long LATENCY_FACTOR = 4;
+
+    private final int m_max;
+    private int m_limit;
+    private boolean m_slowStart = true;
+    private long m_minLatency = Long.MAX_VALUE;
+    private int m_sinceIncrease = 0;
+    private int m_sinceDecrease = 0;
+
+    public AdaptiveWindow(int max) {
+        m_max = Math.max(1, max);
+        m_limit = Math.min(m_max, 4);
+    }
+
+    public int getLimit() {
+        return m_limit;
+    }
+
+    /**
+     * Account for one completed call.
+     *
+     * @param latencyNanos round trip of the call, 0 if unknown.
+     * @param backpressure true if the client is currently backpressured.
+     * @return the new limit.
+     */
+    public int update(long latencyNanos, boolean backpressure) {
+        if (latencyNanos > 0 && latencyNanos < m_minLatency) {
+            m_minLatency = latencyNanos;
+        }
+        m_sinceDecrease++;
+        boolean congested = backpressure
+                || (latencyNanos > 0 && m_minLatency != Long.MAX_VALUE && latencyNanos > m_minLatency * LATENCY_FACTOR);
+        if (congested) {
+            if (m_sinceDecrease >= m_limit) {
+                m_limit = Math.max(1, m_limit / 2);
+                m_slowStart = false;
+                m_sinceDecrease = 0;
+                m_sinceIncrease = 0;
+            }
+        } else if (++m_sinceIncrease >= m_limit) {
+            m_limit = Math.min(m_max, m_slowStart ? m_limit * 2 : m_limit + 1);
+            m_sinceIncrease = 0;
+        }
+        return m_limit;
+    }
+}
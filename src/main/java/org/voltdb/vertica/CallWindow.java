@@ -0,0 +1,158 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ProcedureCallback;
+
+/**
+ * Bounded window of asynchronous procedure calls. Calls are issued and
+ * retired in row order by the UDx thread, responses may complete in any
+ * order on the client callback thread.
+ */
+final class CallWindow {
+
+    private static final byte PENDING = 0;
+    private static final byte SUCCESS = 1;
+    private static final byte FAILURE = 2;
+
+    //Guarded by this, indexed by call sequence modulo window size.
+    private final byte[] m_status;
+    private final String[] m_errors;
+    private final long[] m_latencies;
+
+    //Only touched by the UDx thread.
+    private long m_issued = 0;
+    private long m_retired = 0;
+    private int m_limit;
+    private String m_lastError;
+    private long m_lastLatency;
+
+    public CallWindow(int size) {
+        if (size < 1) {
+            size = 1;
+        }
+        m_status = new byte[size];
+        m_errors = new String[size];
+        m_latencies = new long[size];
+        m_limit = size;
+    }
+
+    public boolean isFull() {
+        return m_issued - m_retired >= m_limit;
+    }
+
+    /**
+     * Limit the number of outstanding calls to less than the window size.
+     */
+    public void setLimit(int limit) {
+        m_limit = Math.max(1, Math.min(limit, m_status.length));
+    }
+
+    public long getOutstanding() {
+        return m_issued - m_retired;
+    }
+
+    public boolean isEmpty() {
+        return m_issued == m_retired;
+    }
+
+    /**
+     * Reserve the next slot in the window. Caller must make sure the window
+     * is not full.
+     *
+     * @return callback that completes the reserved slot.
+     */
+    public SlotCallback issue() {
+        final int slot = (int) (m_issued % m_status.length);
+        synchronized (this) {
+            m_status[slot] = PENDING;
+            m_errors[slot] = null;
+        }
+        m_issued++;
+        return new SlotCallback(slot);
+    }
+
+    /**
+     * Wait for the oldest outstanding call to complete and release its slot.
+     *
+     * @return true if the call succeeded, false otherwise. On failure the
+     * error is available from {@link #lastError()}.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean retire() throws InterruptedException {
+        final int slot = (int) (m_retired % m_status.length);
+        boolean success;
+        synchronized (this) {
+            while (m_status[slot] == PENDING) {
+                wait();
+            }
+            success = m_status[slot] == SUCCESS;
+            m_lastError = m_errors[slot];
+            m_lastLatency = m_latencies[slot];
+        }
+        m_retired++;
+        return success;
+    }
+
+    public String lastError() {
+        return m_lastError;
+    }
+
+    /**
+     * @return round trip in nanoseconds of the last retired call, 0 if it
+     * never reached the server.
+     */
+    public long lastLatencyNanos() {
+        return m_lastLatency;
+    }
+
+    private synchronized void complete(int slot, boolean success, String error, long latency) {
+        m_status[slot] = success ? SUCCESS : FAILURE;
+        m_errors[slot] = error;
+        m_latencies[slot] = latency;
+        notifyAll();
+    }
+
+    public class SlotCallback implements ProcedureCallback {
+        private final int m_slot;
+
+        SlotCallback(int slot) {
+            m_slot = slot;
+        }
+
+        @Override
+        public void clientCallback(ClientResponse response) throws Exception {
+            boolean success = response.getStatus() == ClientResponse.SUCCESS;
+            complete(m_slot, success, success ? null : response.getStatusString(), response.getClientRoundtripNanos());
+        }
+
+        /**
+         * Complete the slot without a response, for calls that could not be
+         * queued.
+         */
+        public void fail(String error) {
+            complete(m_slot, false, error, 0);
+        }
+    }
+}
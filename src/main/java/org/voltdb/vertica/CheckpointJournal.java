@@ -0,0 +1,151 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Local journal of load progress for resumable voltdbloadpartition loads.
+ * Each record holds the number of leading rows of a partition that are
+ * acknowledged by VoltDB followed by the partition key values and a CRC32 of
+ * both. The last record of a partition wins, so a rerun with the same load id
+ * skips the rows that were already loaded. A record appended after an
+ * interrupted write is joined to it and fails the check, so it is ignored
+ * instead of read as a wrong offset.
+ */
+final class CheckpointJournal {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File m_file;
+    //Offsets read when the journal was opened, keyed by encoded partition key.
+    private final Map<String, Long> m_offsets;
+    private final FileChannel m_channel;
+
+    private CheckpointJournal(File file, Map<String, Long> offsets, FileChannel channel) {
+        m_file = file;
+        m_offsets = offsets;
+        m_channel = channel;
+    }
+
+    /**
+     * Open the journal of a load, reading the progress of earlier runs.
+     */
+    public static CheckpointJournal open(String dir, String loadId) throws IOException {
+        if (!loadId.matches("[A-Za-z0-9_.-]+")) {
+            throw new IOException("Load id may only contain letters, digits, '_', '.' and '-': " + loadId);
+        }
+        File file = new File(dir, loadId + ".ckpt");
+        Map<String, Long> offsets = new HashMap<String, Long>();
+        if (file.exists()) {
+            RejectFile.Reader reader = new RejectFile.Reader(file.getPath());
+            try {
+                List<String> fields;
+                while ((fields = reader.next()) != null) {
+                    if (fields.size() < 3) {
+                        //Partial record of an interrupted write.
+                        continue;
+                    }
+                    String key = encodeKey(fields.subList(1, fields.size() - 1));
+                    String body = fields.get(0) + "," + key;
+                    if (!checksum(body).equals(fields.get(fields.size() - 1))) {
+                        continue;
+                    }
+                    try {
+                        offsets.put(key, Long.parseLong(fields.get(0)));
+                    } catch (NumberFormatException ex) {
+                        continue;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        return new CheckpointJournal(file, offsets, channel);
+    }
+
+    public String getPath() {
+        return m_file.getPath();
+    }
+
+    /**
+     * Encode partition key values as the journal stores them.
+     */
+    static String encodeKey(List<?> values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            Object val = values.get(i);
+            if (val instanceof byte[]) {
+                RawLine.appendHex(sb, (byte[]) val);
+            } else if (val != null) {
+                RejectFile.appendField(sb, val.toString());
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return number of leading rows of the partition loaded by earlier runs.
+     */
+    public long getOffset(String key) {
+        Long offset = m_offsets.get(key);
+        return offset == null ? 0 : offset;
+    }
+
+    /**
+     * Record that the first offset rows of the partition are acknowledged.
+     * The record is synced to disk before returning.
+     */
+    public synchronized void record(String key, long offset) throws IOException {
+        String body = offset + "," + key;
+        ByteBuffer buf = ByteBuffer.wrap((body + "," + checksum(body) + "\n").getBytes(UTF8));
+        while (buf.hasRemaining()) {
+            m_channel.write(buf);
+        }
+        m_channel.force(false);
+    }
+
+    private static String checksum(String body) {
+        CRC32 crc = new CRC32();
+        crc.update(body.getBytes(UTF8));
+        return Long.toHexString(crc.getValue());
+    }
+
+    public synchronized void close() throws IOException {
+        m_channel.close();
+    }
+}
@@ -0,0 +1,387 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.voltdb.client.Client;
+import org.voltdb.client.ClientConfig;
+import org.voltdb.client.ClientFactory;
+import org.voltdb.client.ClientStatusListenerExt;
+
+/**
+ * JVM wide cache of VoltDB clients shared by UDx instances. Clients are keyed
+ * by server list and credentials and reference counted. Unused clients are
+ * closed after being idle for a while and clients that lost all their
+ * connections are replaced.
+ */
+final class ClientCache {
+
+    private static final long IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long REAP_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+    static final long DEFAULT_CONNECT_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+    static final int DEFAULT_QUORUM = 1;
+    private static final int MAX_CONNECT_THREADS = 8;
+
+    //Guarded by ClientCache.class
+    private static final Map<String, Handle> s_clients = new HashMap<String, Handle>();
+    private static ScheduledExecutorService s_reaper;
+
+    private ClientCache() {
+    }
+
+    /**
+     * Reference to a cached client. Each acquired handle must be released
+     * exactly once.
+     */
+    public static final class Handle {
+        private final String m_key;
+        private final Client m_client;
+        private final StatusListener m_listener;
+        //Keeps connecting to unreachable servers, null for detached handles.
+        private final Connector m_connector;
+        private int m_refs = 0;
+        private long m_idleSince;
+        private boolean m_retired = false;
+
+        private Handle(String key, Client client, StatusListener listener, Connector connector) {
+            m_key = key;
+            m_client = client;
+            m_listener = listener;
+            m_connector = connector;
+        }
+
+        public Client getClient() {
+            return m_client;
+        }
+
+        /**
+         * @return true while the client is backpressured by the cluster.
+         */
+        public boolean isBackpressured() {
+            return m_listener.m_backpressure;
+        }
+
+        public void release() {
+            ClientCache.release(this);
+        }
+
+        private boolean isHealthy() {
+            return !m_client.getConnectedHostList().isEmpty();
+        }
+    }
+
+    private static final class StatusListener extends ClientStatusListenerExt {
+        volatile boolean m_backpressure = false;
+
+        @Override
+        public void backpressure(boolean status) {
+            m_backpressure = status;
+        }
+    }
+
+    /**
+     * Get a connected client for the servers, reusing a cached one if
+     * possible.
+     *
+     * @param servers A comma separated list of servers using the hostname:port
+     * syntax (where :port is optional).
+     * @param user VoltDB user, may be empty.
+     * @param password VoltDB password, may be empty.
+     * @throws InterruptedException if interrupted while connecting.
+     * @throws IOException if too few servers are reachable in time.
+     */
+    public static Handle acquire(String servers, String user, String password) throws InterruptedException, IOException {
+        return acquire(servers, user, password, 0, DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_QUORUM);
+    }
+
+    /**
+     * Get one of several distinct cached clients for the same servers, used
+     * to spread a load over more than one connection per host.
+     *
+     * @param slot index of the client, clients with different slots never
+     * share connections.
+     * @param timeoutMillis time allowed to connect to quorum servers.
+     * @param quorum number of listed servers that must be connected before
+     * the client is used, the others keep connecting in the background.
+     */
+    public static Handle acquire(String servers, String user, String password, int slot,
+            long timeoutMillis, int quorum) throws InterruptedException, IOException {
+        String[] serverArray = normalize(servers);
+        String key = Arrays.toString(serverArray) + '\u0000' + user + '\u0000' + password + '\u0000' + slot;
+        synchronized (ClientCache.class) {
+            Handle handle = s_clients.get(key);
+            if (handle != null && handle.isHealthy()) {
+                handle.m_refs++;
+                return handle;
+            }
+            if (handle != null) {
+                retire(handle);
+            }
+        }
+
+        //Connect outside the lock, a concurrent acquire may connect too and the loser is closed.
+        StatusListener listener = new StatusListener();
+        Client client = ClientFactory.createClient(config(user, password, listener));
+        Connector connector = new Connector(client, serverArray);
+        try {
+            connector.connect(timeoutMillis, quorum);
+        } catch (IOException ex) {
+            close(connector);
+            throw ex;
+        } catch (InterruptedException ex) {
+            close(connector);
+            throw ex;
+        }
+        Handle created = new Handle(key, client, listener, connector);
+        Handle handle;
+        boolean lost = false;
+        synchronized (ClientCache.class) {
+            handle = s_clients.get(key);
+            if (handle != null && handle.isHealthy()) {
+                lost = true;
+            } else {
+                if (handle != null) {
+                    retire(handle);
+                }
+                handle = created;
+                s_clients.put(key, handle);
+                startReaper();
+            }
+            handle.m_refs++;
+        }
+        if (lost) {
+            close(connector);
+        }
+        return handle;
+    }
+
+    /**
+     * Wrap a client that is not owned by the cache, e.g. a stand-in client of
+     * the benchmarks. Releasing the handle never closes the client.
+     */
+    static Handle detached(Client client) {
+        Handle handle = new Handle(null, client, new StatusListener(), null);
+        handle.m_refs = 1;
+        return handle;
+    }
+
+    private static void release(Handle handle) {
+        boolean close = false;
+        synchronized (ClientCache.class) {
+            if (--handle.m_refs == 0) {
+                handle.m_idleSince = System.currentTimeMillis();
+                close = handle.m_retired;
+            }
+        }
+        if (close) {
+            close(handle.m_connector);
+        }
+    }
+
+    //Remove from the cache, the client is closed once the last reference is released.
+    private static void retire(Handle handle) {
+        s_clients.remove(handle.m_key);
+        handle.m_retired = true;
+        if (handle.m_refs == 0) {
+            close(handle.m_connector);
+        }
+    }
+
+    private static void reap() {
+        long now = System.currentTimeMillis();
+        synchronized (ClientCache.class) {
+            Iterator<Handle> it = s_clients.values().iterator();
+            while (it.hasNext()) {
+                Handle handle = it.next();
+                if (handle.m_refs == 0
+                        && (now - handle.m_idleSince >= IDLE_TIMEOUT_MS || !handle.isHealthy())) {
+                    it.remove();
+                    handle.m_retired = true;
+                    close(handle.m_connector);
+                }
+            }
+        }
+    }
+
+    private static void startReaper() {
+        if (s_reaper != null) {
+            return;
+        }
+        s_reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "VoltDB client cache reaper");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        s_reaper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                reap();
+            }
+        }, REAP_INTERVAL_MS, REAP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    //Stop connecting in the background and close the client.
+    private static void close(Connector connector) {
+        connector.cancel();
+        try {
+            connector.m_client.close();
+        } catch (Exception ex) {
+            System.err.printf("Failed to close VoltDB client: %s\n", ex);
+        }
+    }
+
+    private static String[] normalize(String servers) {
+        String[] serverArray = servers.split(",");
+        for (int i = 0; i < serverArray.length; i++) {
+            serverArray[i] = serverArray[i].trim();
+        }
+        Arrays.sort(serverArray);
+        return serverArray;
+    }
+
+    private static ClientConfig config(String user, String password, ClientStatusListenerExt listener) {
+        ClientConfig clientConfig = new ClientConfig(user, password, listener);
+        //Learn the other cluster nodes from the first connection and connect to them in the background.
+        clientConfig.setTopologyChangeAware(true);
+        return clientConfig;
+    }
+
+    /**
+     * Connects a client to the listed servers in parallel on a bounded number
+     * of threads. Each connection attempt is a separate task, servers that
+     * are not reachable are rescheduled with limited exponential backoff in
+     * the background until they connect or the client is closed, so waiting
+     * for a retry never holds a thread that another server could use.
+     */
+    private static final class Connector {
+        private final Client m_client;
+        private final String[] m_servers;
+        private final ScheduledExecutorService m_executor;
+        //Servers not connected yet, the threads stop when all are connected.
+        private final AtomicInteger m_pending;
+        private volatile boolean m_cancelled = false;
+
+        Connector(Client client, String[] servers) {
+            m_client = client;
+            m_servers = servers;
+            m_pending = new AtomicInteger(servers.length);
+            m_executor = Executors.newScheduledThreadPool(Math.min(servers.length, MAX_CONNECT_THREADS), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "VoltDB connect");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        /**
+         * Block until quorum servers are connected.
+         *
+         * @throws IOException if fewer than quorum servers connected before
+         * the timeout.
+         */
+        void connect(long timeoutMillis, int quorum) throws InterruptedException, IOException {
+            final int needed = Math.max(1, Math.min(quorum, m_servers.length));
+            final CountDownLatch connected = new CountDownLatch(needed);
+            final long deadline = System.currentTimeMillis() + timeoutMillis;
+            System.out.printf("Connecting to VoltDB, %d of %d servers within %d ms...\n", needed, m_servers.length, timeoutMillis);
+            for (String server : m_servers) {
+                m_executor.execute(new Attempt(server, deadline, connected));
+            }
+            if (!connected.await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                throw new IOException(String.format("Connected to %d of %d VoltDB servers within %d ms, %d needed",
+                        needed - connected.getCount(), m_servers.length, timeoutMillis, needed));
+            }
+        }
+
+        void cancel() {
+            m_cancelled = true;
+            m_executor.shutdownNow();
+        }
+
+        /**
+         * One connection attempt to a server, reschedules itself on failure.
+         */
+        private final class Attempt implements Runnable {
+            private final String m_server;
+            private final long m_deadline;
+            private final CountDownLatch m_connected;
+            private long m_backoff = 1000;
+
+            Attempt(String server, long deadline, CountDownLatch connected) {
+                m_server = server;
+                m_deadline = deadline;
+                m_connected = connected;
+            }
+
+            @Override
+            public void run() {
+                if (m_cancelled) {
+                    return;
+                }
+                try {
+                    m_client.createConnection(m_server);
+                    System.out.printf("Connected to VoltDB node at: %s.\n", m_server);
+                    m_connected.countDown();
+                    if (m_pending.decrementAndGet() == 0) {
+                        m_executor.shutdown();
+                    }
+                    return;
+                } catch (Exception e) {
+                    if (m_cancelled) {
+                        return;
+                    }
+                }
+                //Before quorum retry quickly enough to make the deadline.
+                long wait = m_backoff;
+                if (m_connected.getCount() > 0) {
+                    wait = Math.max(100, Math.min(m_backoff, m_deadline - System.currentTimeMillis()));
+                }
+                System.err.printf("Connection to %s failed - retrying in %d ms.\n", m_server, wait);
+                if (m_backoff < 8000) {
+                    m_backoff += m_backoff;
+                }
+                try {
+                    m_executor.schedule(this, wait, TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException ex) {
+                    //Cancelled while connecting.
+                }
+            }
+        }
+    }
+}
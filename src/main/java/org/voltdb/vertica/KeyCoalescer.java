@@ -0,0 +1,172 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import com.vertica.sdk.UdfException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds rows of a block that are superseded by a later row with the same
+ * key. A single integer key column is looked up in an open addressing map
+ * of primitive longs, other keys in a hash map of value lists. Rows with a
+ * NULL key value are never coalesced.
+ */
+final class KeyCoalescer {
+
+    //Zero based argument indexes of the key.
+    private final int[] m_columns;
+    private final LongIndexMap m_longKeys = new LongIndexMap();
+    private final Map<List<Object>, Integer> m_keys = new HashMap<List<Object>, Integer>();
+
+    KeyCoalescer(int[] columns) {
+        m_columns = columns;
+    }
+
+    /**
+     * Forget the rows of the previous block.
+     */
+    public void reset() {
+        m_longKeys.clear();
+        m_keys.clear();
+    }
+
+    /**
+     * Record the key of a row.
+     *
+     * @return index of the earlier row with the same key which this row
+     * supersedes, -1 if there is none.
+     */
+    public int put(Object[] vals, int row) {
+        if (m_columns.length == 1) {
+            Object value = value(vals, m_columns[0]);
+            if (value == null) {
+                return -1;
+            }
+            if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                return m_longKeys.put(((Number) value).longValue(), row);
+            }
+        }
+        List<Object> key = new ArrayList<Object>(m_columns.length);
+        for (int column : m_columns) {
+            Object value = value(vals, column);
+            if (value == null) {
+                return -1;
+            }
+            //Arrays are compared by identity, buffers by content.
+            key.add(value instanceof byte[] ? ByteBuffer.wrap((byte[]) value) : value);
+        }
+        Integer previous = m_keys.put(key, row);
+        return previous == null ? -1 : previous;
+    }
+
+    private static Object value(Object[] vals, int column) {
+        if (column >= vals.length) {
+            throw new UdfException(0, "coalescekey argument " + (column + 1) + " does not exist");
+        }
+        Object value = vals[column];
+        //Vertica reads null integers as Long.MIN_VALUE and null floats as NaN, unless coercion turned them into null.
+        if ((value instanceof Long && (Long) value == Long.MIN_VALUE)
+                || (value instanceof Double && ((Double) value).isNaN())) {
+            return null;
+        }
+        return value;
+    }
+
+    /**
+     * Map of long keys to row indexes with linear probing. Entries are
+     * stamped with the generation they were written in so clearing does
+     * not touch the arrays.
+     */
+    private static final class LongIndexMap {
+        private long[] m_keys = new long[1024];
+        private int[] m_rows = new int[1024];
+        private int[] m_stamps = new int[1024];
+        private int m_generation = 1;
+        private int m_size = 0;
+
+        void clear() {
+            m_size = 0;
+            if (++m_generation == 0) {
+                Arrays.fill(m_stamps, 0);
+                m_generation = 1;
+            }
+        }
+
+        /**
+         * @return the previous row of the key, -1 if there is none.
+         */
+        int put(long key, int row) {
+            int mask = m_keys.length - 1;
+            int slot = hash(key) & mask;
+            while (m_stamps[slot] == m_generation) {
+                if (m_keys[slot] == key) {
+                    int previous = m_rows[slot];
+                    m_rows[slot] = row;
+                    return previous;
+                }
+                slot = (slot + 1) & mask;
+            }
+            m_keys[slot] = key;
+            m_rows[slot] = row;
+            m_stamps[slot] = m_generation;
+            if (++m_size * 2 > m_keys.length) {
+                grow();
+            }
+            return -1;
+        }
+
+        private void grow() {
+            long[] keys = m_keys;
+            int[] rows = m_rows;
+            int[] stamps = m_stamps;
+            int generation = m_generation;
+            m_keys = new long[keys.length * 2];
+            m_rows = new int[keys.length * 2];
+            m_stamps = new int[keys.length * 2];
+            m_generation = 1;
+            int mask = m_keys.length - 1;
+            for (int i = 0; i < keys.length; i++) {
+                if (stamps[i] != generation) {
+                    continue;
+                }
+                int slot = hash(keys[i]) & mask;
+                while (m_stamps[slot] == m_generation) {
+                    slot = (slot + 1) & mask;
+                }
+                m_keys[slot] = keys[i];
+                m_rows[slot] = rows[i];
+                m_stamps[slot] = m_generation;
+            }
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
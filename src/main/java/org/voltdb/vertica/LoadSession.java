@@ -0,0 +1,664 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import com.vertica.sdk.BlockReader;
+import com.vertica.sdk.ParamReader;
+import com.vertica.sdk.ServerInterface;
+import com.vertica.sdk.SizedColumnTypes;
+import com.vertica.sdk.UdfException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.voltdb.VoltType;
+import org.voltdb.client.Client;
+import org.voltdb.client.ClientImpl;
+import org.voltdb.utils.CSVBulkDataLoader;
+import org.voltdb.utils.CSVDataLoader;
+import org.voltdb.utils.CSVTupleDataLoader;
+import org.voltdb.utils.RowWithMetaData;
+import org.voltdb.vertica.VoltDBLoader.VerticaBulkLoaderErrorHandler;
+
+/**
+ * Loading state of one voltdbload function instance: the cached client, the
+ * bulk or tuple loader, error accounting, metrics and logging. Shared by the
+ * scalar and transform variants of voltdbload.
+ */
+final class LoadSession {
+
+    //Rows per partition batch, the bulk loader hashes each row to its partition.
+    private static final int DEFAULT_BATCH = 200;
+    //Batches sized by autobatchsize aim for this many bytes per partition batch.
+    private static final int AUTO_BATCH_BYTES = 512 * 1024;
+    private static final int MIN_BATCH = 20;
+    private static final int MAX_BATCH = 10000;
+    //Converted rows buffered for each sender thread.
+    private static final int PIPELINE_CAPACITY = 4096;
+    //Interval a flush checks whether this session's rows are acknowledged.
+    private static final long FLUSH_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    //Longer than the client procedure call timeout, after which every sent row has a response.
+    private static final long FLUSH_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(5);
+    //Batches in flight with adaptive, as the window of voltdbcall.
+    private static final int DEFAULT_WINDOW = 100;
+
+    //One client and loader per connection.
+    private final ClientCache.Handle[] m_handles;
+    private final CSVDataLoader[] m_loaders;
+    private final String m_table;
+    //VoltDB types the arguments are loaded into, null if unknown.
+    private final VoltType[] m_targets;
+    private final String m_target;
+    private final VerticaBulkLoaderErrorHandler m_errorHandler;
+    //Failed rows are appended here instead of logged, null if not set.
+    private final RejectFile m_rejects;
+    private final LoadStats m_stats;
+    private final UdxLog m_log;
+    //Null when rows are sent on the UDx thread.
+    private final RowPipeline m_pipeline;
+    //Argument indexes of the key whose rows always go through the same sender, null to spread rows evenly.
+    private final int[] m_orderKey;
+    private long m_nextSender = 0;
+    //Limits the batches in flight, null unless adaptive.
+    private final AdaptiveWindow m_flow;
+    //Acknowledged batches the flow limit was last updated with.
+    private long m_flowBatches = 0;
+    private RowConverter m_converter;
+    //Line number of the next row, counted across blocks.
+    private long m_lineNumber = 0;
+
+    //Package private for the benchmarks, which load into stand-in loaders.
+    LoadSession(ClientCache.Handle[] handles, CSVDataLoader[] loaders, String table,
+            VoltType[] targets, String target,
+            VerticaBulkLoaderErrorHandler errorHandler, RejectFile rejects, LoadStats stats, UdxLog log, int senders, int[] orderKey,
+            int window) {
+        m_handles = handles;
+        m_loaders = loaders;
+        m_table = table;
+        m_targets = targets;
+        m_target = target;
+        m_errorHandler = errorHandler;
+        m_rejects = rejects;
+        m_stats = stats;
+        m_log = log;
+        m_orderKey = orderKey;
+        m_flow = window > 0 ? new AdaptiveWindow(window) : null;
+        m_pipeline = senders > 0 ? new RowPipeline(PIPELINE_CAPACITY, senders, new RowPipeline.Sink() {
+            @Override
+            public void send(int sender, RowWithMetaData row) throws Exception {
+                sendRow(sender % m_loaders.length, row);
+            }
+        }) : null;
+    }
+
+    /**
+     * Parse the voltdbload parameters, connect and create the loader.
+     *
+     * @param function name the invocation is reported under in voltdbstats.
+     */
+    public static LoadSession open(ServerInterface si, String function) {
+        ClientCache.Handle[] handles = null;
+        CSVDataLoader[] loaders;
+        VerticaBulkLoaderErrorHandler errorHandler;
+        LoadStats stats = null;
+        RejectFile rejects = null;
+        UdxLog log;
+        String table = null;
+        String target;
+        VoltType[] targets;
+        int senders;
+        int[] orderKey = null;
+        int window = 0;
+        try {
+            ParamReader argReader = si.getParamReader();
+            log = UdxLog.create(si, argReader);
+
+            int numCols = argReader.getNumCols();
+            log.debug("No of params: %d", numCols);
+            if (numCols < 2) {
+                throw new UdfException(0,
+                    "Must supply at least 2 arguments");
+            }
+
+            VoltConnection connection = VoltConnection.create(argReader);
+            String server = connection.getServers();
+            String procedure = "";
+            long maxerrors;
+            int batchSize;
+            boolean autoBatchSize;
+            int connections;
+            String rejectFile;
+            try {
+                table = argReader.getString("volttable");
+            } catch (UdfException udfex) {
+                ;
+            }
+            try {
+                procedure = argReader.getString("procedure");
+            } catch (UdfException udfex) {
+                ;
+            }
+            try {
+                maxerrors = argReader.getLong("maxerrors");
+            } catch (UdfException udfex) {
+                maxerrors = 100;
+            }
+            try {
+                batchSize = (int) argReader.getLong("batchsize");
+            } catch (UdfException udfex) {
+                batchSize = 0;
+            }
+            try {
+                autoBatchSize = argReader.getBoolean("autobatchsize");
+            } catch (UdfException udfex) {
+                autoBatchSize = false;
+            }
+            try {
+                if (argReader.getBoolean("adaptive")) {
+                    window = DEFAULT_WINDOW;
+                }
+            } catch (UdfException udfex) {
+                ;
+            }
+            if (window > 0) {
+                try {
+                    window = Math.max(1, (int) argReader.getLong("window"));
+                } catch (UdfException udfex) {
+                    ;
+                }
+            }
+            try {
+                senders = (int) argReader.getLong("senders");
+            } catch (UdfException udfex) {
+                senders = 0;
+            }
+            try {
+                connections = Math.max(1, (int) argReader.getLong("connections"));
+            } catch (UdfException udfex) {
+                connections = 1;
+            }
+            try {
+                rejectFile = argReader.getString("rejectfile");
+            } catch (UdfException udfex) {
+                rejectFile = "";
+            }
+            String orderKeys;
+            try {
+                orderKeys = argReader.getString("orderkey");
+            } catch (UdfException udfex) {
+                orderKeys = "";
+            }
+            if (orderKeys.trim().isEmpty()) {
+                //Rows voltdbload coalesces by key are kept in order by the same key.
+                try {
+                    orderKeys = argReader.getString("coalescekey");
+                } catch (UdfException udfex) {
+                    orderKeys = "";
+                }
+            }
+            if (!orderKeys.trim().isEmpty()) {
+                orderKey = parsePositions("orderkey", orderKeys);
+            }
+            boolean useProcedure = procedure != null && !procedure.trim().isEmpty();
+            if (useProcedure && senders > 1 && orderKey == null) {
+                throw new UdfException(0, "More than one sender can reorder procedure calls, set orderkey to the key of the rows");
+            }
+
+            log.info("Server: %s, Max errors: %d, Senders: %d, Connections: %d, Adaptive window: %d", server, maxerrors, senders, connections, window);
+            handles = new ClientCache.Handle[connections];
+            for (int i = 0; i < connections; i++) {
+                handles[i] = connection.acquire(i);
+            }
+            loaders = new CSVDataLoader[connections];
+            target = useProcedure ? procedure : table;
+            targets = fetchTypes(log, server, handles[0].getClient(), useProcedure, target);
+            int batch = batchSize > 0 ? batchSize : DEFAULT_BATCH;
+            stats = LoadStats.register(function, target, useProcedure ? 1 : batch);
+            if (!rejectFile.isEmpty()) {
+                log.info("Reject file: %s", rejectFile);
+                rejects = RejectFile.open(rejectFile, stats.getId());
+            }
+            errorHandler = new VerticaBulkLoaderErrorHandler(log, maxerrors, stats, rejects);
+            if (useProcedure) {
+                log.info("Procedure: %s", procedure);
+                for (int i = 0; i < connections; i++) {
+                    loaders[i] = new CSVTupleDataLoader((ClientImpl) handles[i].getClient(), procedure, errorHandler);
+                }
+            } else if (batchSize > 0 || !autoBatchSize) {
+                log.info("Table: %s, Batch size: %d", table, batch);
+                for (int i = 0; i < connections; i++) {
+                    loaders[i] = new CSVBulkDataLoader((ClientImpl) handles[i].getClient(), table, batch, errorHandler);
+                }
+            }
+        } catch (Exception ex) {
+            if (handles != null) {
+                for (ClientCache.Handle handle : handles) {
+                    if (handle != null) {
+                        handle.release();
+                    }
+                }
+            }
+            if (rejects != null) {
+                try {
+                    rejects.close();
+                } catch (IOException ioex) {
+                    ;
+                }
+            }
+            if (stats != null) {
+                stats.finish();
+            }
+            si.log("Failed to load data in voltdb: %s", ex.toString());
+            throw new UdfException(0, "Failed to load data in voltdb: " + ex.toString());
+        }
+
+        return new LoadSession(handles, loaders, table, targets, target, errorHandler, rejects, stats, log, senders, orderKey, window);
+    }
+
+    /**
+     * @return VoltDB types of the table columns or procedure parameters,
+     * null if they could not be read.
+     */
+    static VoltType[] fetchTypes(UdxLog log, String servers, Client client, boolean procedure, String target) {
+        try {
+            VoltType[] types = procedure ? VoltSchema.procedureParameters(servers, client, target)
+                    : VoltSchema.tableColumns(servers, client, target);
+            if (types == null) {
+                log.warn("No VoltDB schema found for %s, values are sent unchanged", target);
+            }
+            return types;
+        } catch (Exception ex) {
+            log.warn("Failed to read VoltDB schema for %s, values are sent unchanged: %s", target, ex);
+            return null;
+        }
+    }
+
+    public static void addParameterTypes(SizedColumnTypes parameterTypes) {
+        VoltConnection.addParameterTypes(parameterTypes);
+        parameterTypes.addVarchar(512, "volttable");
+        parameterTypes.addVarchar(1024, "procedure");
+        parameterTypes.addInt("maxerrors");
+        parameterTypes.addInt("batchsize");
+        parameterTypes.addBool("autobatchsize");
+        parameterTypes.addBool("adaptive");
+        parameterTypes.addInt("window");
+        parameterTypes.addInt("senders");
+        parameterTypes.addVarchar(256, "orderkey");
+        parameterTypes.addInt("connections");
+        parameterTypes.addVarchar(1024, "rejectfile");
+        UdxLog.addParameterTypes(parameterTypes);
+    }
+
+    public void setup(ServerInterface si, SizedColumnTypes argTypes) {
+        createConverter(si, argTypes);
+    }
+
+    private void createConverter(ServerInterface si, SizedColumnTypes types) {
+        m_converter = RowConverter.create(si, types, m_targets, m_target);
+        if (m_rejects != null) {
+            m_rejects.setConverter(m_converter);
+        }
+    }
+
+    public UdxLog getLog() {
+        return m_log;
+    }
+
+    public LoadStats getStats() {
+        return m_stats;
+    }
+
+    public VerticaBulkLoaderErrorHandler getErrorHandler() {
+        return m_errorHandler;
+    }
+
+    /**
+     * @return true once the error limit is reached, remaining rows must not
+     * be loaded.
+     */
+    public boolean isStopped() {
+        if (m_errorHandler.isStopped()) {
+            m_log.error("Reached max error limit for voltload: limit(%d)", m_errorHandler.getMaxErrors());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Convert the current row of the reader and queue it for loading, either
+     * directly or through the sender threads.
+     *
+     * @return estimated size of the row in bytes, -1 if the row does not fit
+     * the VoltDB schema and was counted as failed.
+     * @throws InterruptedException if interrupted while queueing.
+     */
+    public int insertRow(ServerInterface si, BlockReader reader) throws InterruptedException {
+        Object vals[] = convertRow(si, reader);
+        if (vals == null) {
+            return -1;
+        }
+        return queueRow(vals, m_lineNumber - 1);
+    }
+
+    /**
+     * Convert the current row of the reader, the row takes the next line
+     * number.
+     *
+     * @return the converted values, null if the row does not fit the VoltDB
+     * schema and was counted as failed.
+     */
+    public Object[] convertRow(ServerInterface si, BlockReader reader) {
+        if (m_converter == null) {
+            createConverter(si, reader.getTypeMetaData());
+        }
+        //Read values and pass them to bulkloader.
+        Object vals[] = new Object[m_converter.getColumnCount()];
+        long start = System.nanoTime();
+        try {
+            m_converter.convert(reader, vals);
+        } catch (IllegalArgumentException ex) {
+            m_errorHandler.rowRejected(m_lineNumber++, new RawLine(vals), ex.getMessage());
+            return null;
+        }
+        m_stats.rowConverted(System.nanoTime() - start);
+        if (m_log.traceRow(m_lineNumber)) {
+            m_log.trace("Row: %d, Values: %s", m_lineNumber, new RawLine(vals));
+        }
+        m_lineNumber++;
+        return vals;
+    }
+
+    /**
+     * Queue converted values for loading, either directly or through the
+     * sender threads.
+     *
+     * @return estimated size of the row in bytes.
+     * @throws InterruptedException if interrupted while queueing.
+     */
+    public int queueRow(Object[] vals, long lineNumber) throws InterruptedException {
+        if (m_loaders[0] == null) {
+            createSizedLoaders(vals);
+        }
+        if (m_flow != null) {
+            awaitWindow();
+        }
+        RowWithMetaData row = new RowWithMetaData(new RawLine(vals), lineNumber, m_stats.getAckCallback());
+        if (m_pipeline != null) {
+            m_pipeline.put(route(vals), row);
+        } else {
+            sendRow(0, row);
+        }
+        return RowConverter.estimateBytes(vals);
+    }
+
+    /**
+     * Park until the rows in flight fit the adaptive limit, which is counted
+     * in batches.
+     */
+    private void awaitWindow() throws InterruptedException {
+        updateWindow();
+        if (m_stats.getInflight() <= inflightLimit()) {
+            return;
+        }
+        //Rows waiting for their partition batch to fill count as in flight, send them so the window drains.
+        try {
+            for (CSVDataLoader loader : m_loaders) {
+                loader.flush();
+            }
+        } catch (ExecutionException ex) {
+            m_log.error("Failed to flush voltdb bulkloader: %s", ex);
+        }
+        while (m_stats.getInflight() > inflightLimit() && !m_errorHandler.isStopped()) {
+            LockSupport.parkNanos(FLUSH_POLL_NANOS);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            updateWindow();
+        }
+    }
+
+    private long inflightLimit() {
+        return (long) m_flow.getLimit() * Math.max(1, m_stats.getBatchSize());
+    }
+
+    //Account each batch acknowledged since the last update with the latest latency.
+    private void updateWindow() {
+        long batches = m_stats.getBatches();
+        if (batches == m_flowBatches) {
+            return;
+        }
+        long latency = m_stats.getLastLatencyNanos();
+        boolean backpressure = false;
+        for (ClientCache.Handle handle : m_handles) {
+            backpressure |= handle.isBackpressured();
+        }
+        for (; m_flowBatches < batches; m_flowBatches++) {
+            m_flow.update(latency, backpressure);
+        }
+    }
+
+    /**
+     * @return line number of the next row.
+     */
+    public long getLineNumber() {
+        return m_lineNumber;
+    }
+
+    /**
+     * @return zero based argument indexes of a comma separated list of one
+     * based argument positions.
+     * @throws UdfException naming the parameter if the list is invalid.
+     */
+    static int[] parsePositions(String parameter, String positions) {
+        String[] parts = positions.split(",");
+        int[] columns = new int[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                columns[i] = Integer.parseInt(parts[i].trim()) - 1;
+                if (columns[i] < 0) {
+                    throw new NumberFormatException(parts[i]);
+                }
+            }
+        } catch (NumberFormatException ex) {
+            throw new UdfException(0, "Invalid " + parameter + ": " + positions);
+        }
+        return columns;
+    }
+
+    /**
+     * @return the values of the given columns of the current row, encoded
+     * as a checkpoint journal key.
+     */
+    public String partitionKey(ServerInterface si, BlockReader reader, int[] columns) {
+        if (m_converter == null) {
+            createConverter(si, reader.getTypeMetaData());
+        }
+        Object vals[] = new Object[m_converter.getColumnCount()];
+        try {
+            m_converter.convert(reader, vals);
+        } catch (IllegalArgumentException ex) {
+            //The raw values are kept.
+        }
+        List<Object> key = new ArrayList<Object>(columns.length);
+        for (int column : columns) {
+            if (column >= vals.length) {
+                throw new UdfException(0, "checkpointkey argument " + (column + 1) + " does not exist");
+            }
+            key.add(vals[column]);
+        }
+        return CheckpointJournal.encodeKey(key);
+    }
+
+    /**
+     * @return the sender of a row, rows with the same order key always take
+     * the same sender.
+     */
+    private int route(Object[] vals) {
+        int senders = m_pipeline.getSenders();
+        if (m_orderKey == null) {
+            return (int) (m_nextSender++ % senders);
+        }
+        int hash = 1;
+        for (int column : m_orderKey) {
+            if (column >= vals.length) {
+                throw new UdfException(0, "orderkey argument " + (column + 1) + " does not exist");
+            }
+            Object value = vals[column];
+            hash = 31 * hash + (value instanceof byte[] ? Arrays.hashCode((byte[]) value) : value == null ? 0 : value.hashCode());
+        }
+        return ((hash * 0x9E3779B9) >>> 1) % senders;
+    }
+
+    //Called on the UDx thread or on a sender thread.
+    private void sendRow(int connection, RowWithMetaData row) throws InterruptedException {
+        Object[] vals = ((RawLine) row.rawLine).getValues();
+        boolean backpressure = m_handles[connection].isBackpressured();
+        long start = System.nanoTime();
+        m_loaders[connection].insertRow(row, vals);
+        m_stats.rowSent(RowConverter.estimateBytes(vals), System.nanoTime() - start,
+                backpressure, m_stats.getInflight());
+    }
+
+    private void createSizedLoaders(Object[] vals) {
+        int batch = autoBatchSize(vals);
+        m_log.info("Table: %s, Batch size from the first row: %d", m_table, batch);
+        m_stats.setBatchSize(batch);
+        try {
+            for (int i = 0; i < m_loaders.length; i++) {
+                m_loaders[i] = new CSVBulkDataLoader((ClientImpl) m_handles[i].getClient(), m_table, batch, m_errorHandler);
+            }
+        } catch (Exception ex) {
+            throw new UdfException(0, "Failed to create voltdb bulkloader: " + ex.toString());
+        }
+    }
+
+    /**
+     * Send partial batches and wait until every row queued by this session
+     * is acknowledged or failed.
+     *
+     * @return false if rows were still in flight when the wait gave up.
+     */
+    public boolean flush() {
+        long start = System.nanoTime();
+        boolean answered = false;
+        try {
+            if (m_pipeline != null) {
+                m_pipeline.await();
+            }
+            for (CSVDataLoader loader : m_loaders) {
+                if (loader != null) {
+                    loader.flush();
+                }
+            }
+            //The clients are shared with other queries, draining them would wait for their calls too.
+            long deadline = System.nanoTime() + FLUSH_TIMEOUT_NANOS;
+            long inflight;
+            while ((inflight = m_stats.getInflight()) > 0 && !m_errorHandler.isStopped()) {
+                if (System.nanoTime() - deadline >= 0) {
+                    m_log.warn("Gave up waiting for %d rows in flight to voltdb", inflight);
+                    break;
+                }
+                LockSupport.parkNanos(FLUSH_POLL_NANOS);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            answered = inflight <= 0;
+        } catch (UdfException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            m_log.error("Failed to flush voltdb bulkloader: %s", ex);
+        }
+        m_stats.flushed(System.nanoTime() - start);
+        return answered;
+    }
+
+    /**
+     * Drain and close the loader and release the client, call once when the
+     * function is destroyed.
+     */
+    public void close() {
+        //Batches and calls stay in flight across blocks, drain them once at the end.
+        long start = System.nanoTime();
+        if (m_pipeline != null) {
+            try {
+                try {
+                    m_pipeline.await();
+                } finally {
+                    m_pipeline.close();
+                }
+            } catch (Exception ex) {
+                m_log.error("Failed to send rows to voltdb: %s", ex);
+            }
+        }
+        //Every loader is closed even if another one or the senders failed, they are registered with the shared client.
+        for (CSVDataLoader loader : m_loaders) {
+            if (loader == null) {
+                continue;
+            }
+            try {
+                loader.flush();
+            } catch (Exception ex) {
+                m_log.error("Failed to flush voltdb bulkloader: %s", ex);
+            } finally {
+                try {
+                    loader.close();
+                } catch (Exception ex) {
+                    m_log.error("Failed to close voltdb bulkloader: %s", ex);
+                }
+            }
+        }
+        m_stats.flushed(System.nanoTime() - start);
+        //Report
+        if (m_rejects != null) {
+            try {
+                m_rejects.close();
+                m_log.info("voltload failed to load %d rows, wrote %d rows to %s.",
+                        m_errorHandler.getFailedCount(), m_rejects.getWritten(), m_rejects.getPath());
+            } catch (IOException ex) {
+                m_log.error("Failed to write reject file %s: %s", m_rejects.getPath(), ex);
+            }
+        } else {
+            m_log.info("voltload failed to load %d rows, see UDx logs for row details.", m_errorHandler.getFailedCount());
+        }
+        m_stats.finish();
+        m_log.close();
+        //Clients stay connected in the cache for the next invocation.
+        for (ClientCache.Handle handle : m_handles) {
+            handle.release();
+        }
+    }
+
+    /**
+     * Size partition batches once from the width of the first row so that
+     * tables of narrow and wide rows send about the same number of bytes per
+     * batch. The size is not changed while loading.
+     */
+    static int autoBatchSize(Object[] vals) {
+        int rowBytes = RowConverter.estimateBytes(vals);
+        return Math.max(MIN_BATCH, Math.min(MAX_BATCH, AUTO_BATCH_BYTES / Math.max(1, rowBytes)));
+    }
+}
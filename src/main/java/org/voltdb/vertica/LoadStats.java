@@ -0,0 +1,281 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ProcedureCallback;
+
+/**
+ * Metrics of one voltdbload or voltdbcall invocation. Counters are updated by
+ * the UDx thread and the client callback thread, and the stats of recent
+ * invocations in this JVM are kept for the voltdbstats function.
+ */
+final class LoadStats {
+
+    private static final int MAX_RETAINED = 256;
+    private static final AtomicLong s_nextId = new AtomicLong(1);
+    //Guarded by s_recent
+    private static final LinkedList<LoadStats> s_recent = new LinkedList<LoadStats>();
+
+    private final long m_id = s_nextId.getAndIncrement();
+    private final String m_function;
+    private final String m_target;
+    private volatile int m_batchSize;
+    private final long m_startNanos = System.nanoTime();
+    private volatile long m_endNanos = 0;
+
+    private final AtomicLong m_rows = new AtomicLong();
+    private final AtomicLong m_bytes = new AtomicLong();
+    private final AtomicLong m_acked = new AtomicLong();
+    private final AtomicLong m_failed = new AtomicLong();
+    //Rows that failed before they were sent, not counted in m_rows.
+    private final AtomicLong m_rejected = new AtomicLong();
+    private final AtomicLong m_cached = new AtomicLong();
+    private final AtomicLong m_coalesced = new AtomicLong();
+    private final AtomicLong m_batches = new AtomicLong();
+    private final AtomicLong m_inflightSum = new AtomicLong();
+    private final AtomicLong m_inflightMax = new AtomicLong();
+    private final AtomicLong m_backpressureRows = new AtomicLong();
+    private final AtomicLong m_backpressureNanos = new AtomicLong();
+    private final AtomicLong m_convertNanos = new AtomicLong();
+    private final AtomicLong m_sendNanos = new AtomicLong();
+    private final AtomicLong m_flushNanos = new AtomicLong();
+    private final LatencyHistogram m_latency = new LatencyHistogram();
+    //Rows of one bulk loader batch share a response, used to count batches.
+    private final AtomicReference<ClientResponse> m_lastResponse = new AtomicReference<ClientResponse>();
+    private volatile long m_lastLatency = 0;
+
+    private final ProcedureCallback m_ackCallback = new ProcedureCallback() {
+        @Override
+        public void clientCallback(ClientResponse response) throws Exception {
+            if (response.getStatus() != ClientResponse.SUCCESS) {
+                return;
+            }
+            m_acked.incrementAndGet();
+            ClientResponse last = m_lastResponse.getAndSet(response);
+            if (last != response) {
+                m_lastLatency = response.getClientRoundtripNanos();
+                m_batches.incrementAndGet();
+                m_latency.record(m_lastLatency);
+            }
+        }
+    };
+
+    /**
+     * Create and register stats for an invocation.
+     *
+     * @param batchSize rows per batch, 0 for one call per row.
+     */
+    public static LoadStats register(String function, String target, int batchSize) {
+        LoadStats stats = new LoadStats(function, target, batchSize);
+        synchronized (s_recent) {
+            s_recent.addLast(stats);
+            //Drop the oldest finished invocations, running ones are always kept.
+            Iterator<LoadStats> it = s_recent.iterator();
+            while (s_recent.size() > MAX_RETAINED && it.hasNext()) {
+                if (it.next().m_endNanos != 0) {
+                    it.remove();
+                }
+            }
+        }
+        return stats;
+    }
+
+    public static List<LoadStats> recent() {
+        synchronized (s_recent) {
+            return new ArrayList<LoadStats>(s_recent);
+        }
+    }
+
+    private LoadStats(String function, String target, int batchSize) {
+        m_function = function;
+        m_target = target;
+        m_batchSize = batchSize;
+    }
+
+    public long getId() {
+        return m_id;
+    }
+
+    public String getFunction() {
+        return m_function;
+    }
+
+    public String getTarget() {
+        return m_target;
+    }
+
+    public void setBatchSize(int batchSize) {
+        m_batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return m_batchSize;
+    }
+
+    /**
+     * Callback to attach to loaded rows so acknowledgements, batches and
+     * batch latency are counted.
+     */
+    public ProcedureCallback getAckCallback() {
+        return m_ackCallback;
+    }
+
+    public void rowConverted(long convertNanos) {
+        m_convertNanos.addAndGet(convertNanos);
+    }
+
+    public void rowSent(long bytes, long sendNanos, boolean backpressure, long inflight) {
+        m_rows.incrementAndGet();
+        m_bytes.addAndGet(bytes);
+        m_sendNanos.addAndGet(sendNanos);
+        if (backpressure) {
+            m_backpressureRows.incrementAndGet();
+            m_backpressureNanos.addAndGet(sendNanos);
+        }
+        m_inflightSum.addAndGet(inflight);
+        long max = m_inflightMax.get();
+        while (inflight > max && !m_inflightMax.compareAndSet(max, inflight)) {
+            max = m_inflightMax.get();
+        }
+    }
+
+    /**
+     * Record a completed procedure call of voltdbcall.
+     */
+    public void callCompleted(boolean success, long latencyNanos) {
+        if (success) {
+            m_acked.incrementAndGet();
+        } else {
+            m_failed.incrementAndGet();
+        }
+        m_batches.incrementAndGet();
+        if (latencyNanos > 0) {
+            m_latency.record(latencyNanos);
+        }
+    }
+
+    /**
+     * Record a voltdblookup row answered without a procedure call of its own.
+     */
+    public void rowCached() {
+        m_cached.incrementAndGet();
+    }
+
+    /**
+     * Record a voltdbload row superseded by a later row with the same key.
+     */
+    public void rowCoalesced() {
+        m_coalesced.incrementAndGet();
+    }
+
+    /**
+     * Record a sent row that failed in VoltDB.
+     */
+    public void rowFailed() {
+        m_failed.incrementAndGet();
+    }
+
+    /**
+     * Record a row that failed before it was sent.
+     */
+    public void rowRejected() {
+        m_rejected.incrementAndGet();
+    }
+
+    public long getAcked() {
+        return m_acked.get();
+    }
+
+    public long getFailed() {
+        return m_failed.get() + m_rejected.get();
+    }
+
+    /**
+     * @return number of acknowledged batches, or calls of voltdbcall.
+     */
+    public long getBatches() {
+        return m_batches.get();
+    }
+
+    /**
+     * @return round trip in nanoseconds of the last acknowledged batch.
+     */
+    public long getLastLatencyNanos() {
+        return m_lastLatency;
+    }
+
+    public long getInflight() {
+        return m_rows.get() - m_acked.get() - m_failed.get();
+    }
+
+    public void flushed(long nanos) {
+        m_flushNanos.addAndGet(nanos);
+    }
+
+    public void finish() {
+        m_endNanos = System.nanoTime();
+    }
+
+    public Map<String, Double> snapshot() {
+        Map<String, Double> m = new LinkedHashMap<String, Double>();
+        long end = m_endNanos != 0 ? m_endNanos : System.nanoTime();
+        double elapsed = Math.max(1, end - m_startNanos) / 1e9;
+        long rows = m_rows.get();
+        long batches = m_batches.get();
+        m.put("running", m_endNanos == 0 ? 1.0 : 0.0);
+        m.put("elapsed_sec", elapsed);
+        m.put("rows", (double) rows);
+        m.put("rows_acked", (double) m_acked.get());
+        m.put("rows_failed", (double) (m_failed.get() + m_rejected.get()));
+        m.put("rows_rejected", (double) m_rejected.get());
+        m.put("rows_cached", (double) m_cached.get());
+        m.put("rows_coalesced", (double) m_coalesced.get());
+        m.put("rows_per_sec", rows / elapsed);
+        m.put("bytes", (double) m_bytes.get());
+        m.put("mb_per_sec", m_bytes.get() / elapsed / (1024 * 1024));
+        m.put("batches", (double) batches);
+        m.put("batch_fill_ratio", m_batchSize > 0 && batches > 0 ? (double) m_acked.get() / (batches * (double) m_batchSize) : 1.0);
+        m.put("inflight_avg", rows > 0 ? (double) m_inflightSum.get() / rows : 0.0);
+        m.put("inflight_max", (double) m_inflightMax.get());
+        m.put("latency_count", (double) m_latency.getCount());
+        m.put("latency_p50_ms", m_latency.getPercentileMillis(0.5));
+        m.put("latency_p99_ms", m_latency.getPercentileMillis(0.99));
+        m.put("latency_p999_ms", m_latency.getPercentileMillis(0.999));
+        m.put("latency_max_ms", m_latency.getMaxMillis());
+        m.put("backpressure_rows", (double) m_backpressureRows.get());
+        m.put("backpressure_wait_ms", m_backpressureNanos.get() / 1e6);
+        m.put("convert_ms", m_convertNanos.get() / 1e6);
+        m.put("send_ms", m_sendNanos.get() / 1e6);
+        m.put("flush_ms", m_flushNanos.get() / 1e6);
+        return m;
+    }
+}
@@ -0,0 +1,123 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Results of voltdblookup calls, shared by all invocations in the UDx JVM.
+ * Entries are evicted least recently used first once the cache is full and
+ * expire after their time to live.
+ */
+final class LookupCache {
+
+    //Guarded by LookupCache.class, in access order.
+    private static final LinkedHashMap<Key, Entry> s_entries = new LinkedHashMap<Key, Entry>(1024, 0.75f, true);
+
+    private static final class Entry {
+        private final String m_value;
+        private final long m_expires;
+
+        private Entry(String value, long expires) {
+            m_value = value;
+            m_expires = expires;
+        }
+    }
+
+    /**
+     * Procedure call of a lookup, compared by procedure and parameter values.
+     * Array parameters such as VARBINARY are compared by content.
+     */
+    static final class Key {
+        private final String m_scope;
+        private final Object[] m_params;
+        private final int m_hash;
+
+        Key(String scope, Object[] params) {
+            m_scope = scope;
+            m_params = params;
+            m_hash = 31 * scope.hashCode() + Arrays.deepHashCode(params);
+        }
+
+        Object[] getParams() {
+            return m_params;
+        }
+
+        @Override
+        public int hashCode() {
+            return m_hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return m_hash == other.m_hash && m_scope.equals(other.m_scope) && Arrays.deepEquals(m_params, other.m_params);
+        }
+    }
+
+    /**
+     * Cached result of a lookup, {@link #NOT_FOUND} if there is none.
+     */
+    static final Object NOT_FOUND = new Object();
+
+    private LookupCache() {
+    }
+
+    /**
+     * @return the cached result, which may be null when the procedure
+     * returned no row, or {@link #NOT_FOUND} when the key is not cached.
+     */
+    public static synchronized Object get(Key key) {
+        Entry entry = s_entries.get(key);
+        if (entry == null) {
+            return NOT_FOUND;
+        }
+        if (entry.m_expires - System.currentTimeMillis() < 0) {
+            s_entries.remove(key);
+            return NOT_FOUND;
+        }
+        return entry.m_value;
+    }
+
+    /**
+     * Cache a result, evicting the least recently used entries beyond
+     * maxEntries.
+     */
+    public static synchronized void put(Key key, String value, long ttlMillis, int maxEntries) {
+        if (maxEntries <= 0 || ttlMillis <= 0) {
+            return;
+        }
+        s_entries.put(key, new Entry(value, System.currentTimeMillis() + ttlMillis));
+        Iterator<Entry> it = s_entries.values().iterator();
+        while (s_entries.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+}
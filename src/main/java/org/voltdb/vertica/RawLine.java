@@ -0,0 +1,62 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+/**
+ * Raw line of a loaded row, rendered from the row values only when it is
+ * reported. The values are the same array handed to the loader, so no copy
+ * is made for rows that load successfully.
+ */
+final class RawLine {
+
+    private final Object[] m_vals;
+
+    public RawLine(Object[] vals) {
+        m_vals = vals;
+    }
+
+    public Object[] getValues() {
+        return m_vals;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Object val : m_vals) {
+            if (val instanceof byte[]) {
+                appendHex(sb, (byte[]) val);
+            } else {
+                sb.append(val);
+            }
+            sb.append(",");
+        }
+        return sb.toString();
+    }
+
+    static void appendHex(StringBuilder sb, byte[] bytes) {
+        final String digits = "0123456789ABCDEF";
+        for (byte b : bytes) {
+            sb.append(digits.charAt((b >> 4) & 0xF)).append(digits.charAt(b & 0xF));
+        }
+    }
+}
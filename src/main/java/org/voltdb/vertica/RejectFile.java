@@ -0,0 +1,313 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append only CSV file of rows that failed to load. Each record holds the
+ * invocation id, line number, VoltDB status (0 for rows rejected before they
+ * were sent), error and the row values. A NULL is an empty field and an
+ * empty string is quoted. Values are written as Vertica reads them for
+ * their source column, see {@link RowConverter#toVerticaText}, and varbinary
+ * values in hex. Records are buffered and only whole records are written so
+ * concurrent writers appending to the same file do not interleave. The
+ * buffer is written once it holds FLUSH_RECORDS records and by a shared
+ * timer every FLUSH_INTERVAL_MS, so a long load shows its rejects and a
+ * load that never reaches close loses at most the last interval.
+ */
+final class RejectFile {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 64 * 1024;
+    static final int FLUSH_RECORDS = 1000;
+    private static final long FLUSH_INTERVAL_MS = TimeUnit.SECONDS.toMillis(1);
+    //Number of fields before the row values.
+    static final int HEADER_FIELDS = 4;
+
+    //Guarded by RejectFile.class
+    private static ScheduledExecutorService s_flusher;
+
+    private final String m_path;
+    private final long m_invocation;
+    private final ScheduledFuture<?> m_flushTask;
+    //Guarded by this
+    private final FileChannel m_channel;
+    private final StringBuilder m_record = new StringBuilder();
+    private ByteBuffer m_buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long m_written = 0;
+    private int m_buffered = 0;
+    private IOException m_failure;
+    private boolean m_closed = false;
+    //Null until the rows are known, values are then written as plain text.
+    private RowConverter m_converter;
+
+    private RejectFile(String path, long invocation, FileChannel channel) {
+        m_path = path;
+        m_invocation = invocation;
+        m_channel = channel;
+        m_flushTask = flusher().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public static RejectFile open(String path, long invocation) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(path),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        return new RejectFile(path, invocation, channel);
+    }
+
+    public String getPath() {
+        return m_path;
+    }
+
+    /**
+     * Set the conversion plan of the rows written, so their values are
+     * written in the form of their Vertica column.
+     */
+    public synchronized void setConverter(RowConverter converter) {
+        m_converter = converter;
+    }
+
+    /**
+     * Append a failed row, called from the UDx and client callback threads.
+     * Write failures are reported once on {@link #close()}.
+     */
+    public synchronized void write(long lineNumber, int status, String error, Object[] vals) {
+        if (m_failure != null || m_closed) {
+            return;
+        }
+        StringBuilder sb = m_record;
+        sb.setLength(0);
+        sb.append(m_invocation).append(',').append(lineNumber).append(',').append(status).append(',');
+        appendField(sb, error);
+        if (vals != null) {
+            for (int i = 0; i < vals.length; i++) {
+                Object val = vals[i];
+                sb.append(',');
+                if (val instanceof byte[]) {
+                    RawLine.appendHex(sb, (byte[]) val);
+                } else if (m_converter != null) {
+                    appendField(sb, m_converter.toVerticaText(i, val));
+                } else if (val != null) {
+                    appendField(sb, RowConverter.toVerticaText(RowConverter.Extractor.UNKNOWN, val));
+                }
+            }
+        }
+        sb.append('\n');
+        byte[] record = sb.toString().getBytes(UTF8);
+        try {
+            if (record.length > m_buffer.remaining()) {
+                flushBuffer();
+                if (record.length > m_buffer.capacity()) {
+                    m_buffer = ByteBuffer.allocate(record.length);
+                }
+            }
+            m_buffer.put(record);
+            m_written++;
+            if (++m_buffered >= FLUSH_RECORDS) {
+                flushBuffer();
+            }
+        } catch (IOException ex) {
+            m_failure = ex;
+        }
+    }
+
+    /**
+     * @return number of records appended by this writer.
+     */
+    public synchronized long getWritten() {
+        return m_written;
+    }
+
+    /**
+     * Write buffered records, sync them to disk and close the file.
+     *
+     * @throws IOException if any record could not be written.
+     */
+    public synchronized void close() throws IOException {
+        if (m_closed) {
+            return;
+        }
+        m_closed = true;
+        m_flushTask.cancel(false);
+        try {
+            if (m_failure == null) {
+                flushBuffer();
+                m_channel.force(false);
+            }
+        } finally {
+            m_channel.close();
+        }
+        if (m_failure != null) {
+            throw m_failure;
+        }
+    }
+
+    //Called by the flush timer.
+    private synchronized void flush() {
+        if (m_closed || m_failure != null || m_buffered == 0) {
+            return;
+        }
+        try {
+            flushBuffer();
+        } catch (IOException ex) {
+            m_failure = ex;
+        }
+    }
+
+    private static synchronized ScheduledExecutorService flusher() {
+        if (s_flusher == null) {
+            s_flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "VoltDB reject file flusher");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return s_flusher;
+    }
+
+    private void flushBuffer() throws IOException {
+        m_buffer.flip();
+        while (m_buffer.hasRemaining()) {
+            m_channel.write(m_buffer);
+        }
+        m_buffer.clear();
+        m_buffered = 0;
+    }
+
+    static void appendField(StringBuilder sb, String value) {
+        if (value == null) {
+            return;
+        }
+        boolean quote = value.isEmpty();
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            sb.append(value);
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                sb.append('"');
+            }
+            sb.append(c);
+        }
+        sb.append('"');
+    }
+
+    /**
+     * Reads the records of a reject file back.
+     */
+    static final class Reader {
+        private final BufferedReader m_reader;
+
+        Reader(String path) throws IOException {
+            m_reader = new BufferedReader(new InputStreamReader(
+                    Channels.newInputStream(FileChannel.open(Paths.get(path), StandardOpenOption.READ)), UTF8));
+        }
+
+        /**
+         * @return fields of the next record, null at the end of the file.
+         * NULL fields are returned as null.
+         */
+        public List<String> next() throws IOException {
+            String line = m_reader.readLine();
+            if (line == null) {
+                return null;
+            }
+            List<String> fields = new ArrayList<String>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            boolean wasQuoted = false;
+            while (true) {
+                for (int i = 0; i < line.length(); i++) {
+                    char c = line.charAt(i);
+                    if (quoted) {
+                        if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                            field.append(c);
+                            i++;
+                        } else if (c == '"') {
+                            quoted = false;
+                        } else {
+                            field.append(c);
+                        }
+                    } else if (c == '"') {
+                        quoted = true;
+                        wasQuoted = true;
+                    } else if (c == ',') {
+                        fields.add(toField(field, wasQuoted));
+                        field.setLength(0);
+                        wasQuoted = false;
+                    } else {
+                        field.append(c);
+                    }
+                }
+                //A quoted field continues on the next line.
+                if (!quoted) {
+                    break;
+                }
+                line = m_reader.readLine();
+                if (line == null) {
+                    break;
+                }
+                field.append('\n');
+            }
+            fields.add(toField(field, wasQuoted));
+            return fields;
+        }
+
+        private static String toField(StringBuilder field, boolean quoted) {
+            return field.length() == 0 && !quoted ? null : field.toString();
+        }
+
+        public void close() throws IOException {
+            m_reader.close();
+        }
+    }
+}
@@ -0,0 +1,514 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import com.vertica.sdk.BlockReader;
+import com.vertica.sdk.ServerInterface;
+import com.vertica.sdk.SizedColumnTypes;
+import com.vertica.sdk.UdfException;
+import com.vertica.sdk.VerticaType;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import org.voltdb.VoltType;
+import org.voltdb.types.TimestampType;
+
+/**
+ * Column to value conversion plan for Vertica rows. The Vertica type of each
+ * column, and the VoltDB type it is loaded into when known, are resolved once
+ * when the plan is built so converting a row is a plain loop over the column
+ * extractors and coercions.
+ */
+final class RowConverter {
+
+    /**
+     * Reads one column of the current row as the value passed to VoltDB.
+     */
+    enum Extractor {
+        BIGINT {
+            @Override
+            Object get(BlockReader reader, int i) {
+                return reader.getLong(i);
+            }
+        },
+        STRING {
+            @Override
+            Object get(BlockReader reader, int i) {
+                return reader.getString(i);
+            }
+        },
+        FLOAT {
+            @Override
+            Object get(BlockReader reader, int i) {
+                return reader.getDouble(i);
+            }
+        },
+        DECIMAL {
+            @Override
+            Object get(BlockReader reader, int i) {
+                if (reader.isNumericNull(i)) {
+                    return null;
+                }
+                return reader.getNumeric(i);
+            }
+        },
+        //VoltDB refuses decimals with a scale above 12 instead of rounding them.
+        DECIMAL_ROUNDED {
+            @Override
+            Object get(BlockReader reader, int i) {
+                if (reader.isNumericNull(i)) {
+                    return null;
+                }
+                return reader.getNumeric(i).setScale(VOLT_DECIMAL_SCALE, RoundingMode.HALF_UP);
+            }
+        },
+        VARBINARY {
+            @Override
+            Object get(BlockReader reader, int i) {
+                if (reader.isVarbinaryNull(i)) {
+                    return null;
+                }
+                //The buffer belongs to the block, copy it once for the loader.
+                ByteBuffer buf = reader.getVarbinary(i).duplicate();
+                byte[] bytes = new byte[buf.remaining()];
+                buf.get(bytes);
+                return bytes;
+            }
+        },
+        TIMESTAMP {
+            @Override
+            Object get(BlockReader reader, int i) {
+                Timestamp ts = reader.getTimestamp(i);
+                return ts == null ? null : toTimestampType(ts);
+            }
+        },
+        DATE {
+            @Override
+            Object get(BlockReader reader, int i) {
+                if (reader.isDateNull(i)) {
+                    return null;
+                }
+                //Local midnight of the date, converted like a timestamp.
+                return toTimestampType(new Timestamp(reader.getDate(i).getTime()));
+            }
+        },
+        TIME {
+            @Override
+            Object get(BlockReader reader, int i) {
+                if (reader.isTimeNull(i)) {
+                    return null;
+                }
+                return toMicrosOfDay(reader.getTime(i));
+            }
+        },
+        //Microseconds for day to second intervals, months for year to month.
+        INTERVAL {
+            @Override
+            Object get(BlockReader reader, int i) {
+                return reader.getLong(i);
+            }
+        },
+        BOOLEAN {
+            @Override
+            Object get(BlockReader reader, int i) {
+                return reader.getBoolean(i) ? 1 : 0;
+            }
+        },
+        UNKNOWN {
+            @Override
+            Object get(BlockReader reader, int i) {
+                return null;
+            }
+        };
+
+        abstract Object get(BlockReader reader, int i);
+
+        static Extractor forType(VerticaType vt) {
+            //What to do with LongVarchar and LongChar
+            if (vt.isInt()) {
+                return BIGINT;
+            } else if (vt.isBinary() || vt.isVarbinary() || vt.isLongVarbinary()) {
+                return VARBINARY;
+            } else if (vt.isStringType() || vt.isLongVarchar() || vt.isChar()) {
+                return STRING;
+            } else if (vt.isFloat()) {
+                return FLOAT;
+            } else if (vt.isNumeric()) {
+                return vt.getNumericScale() > VOLT_DECIMAL_SCALE ? DECIMAL_ROUNDED : DECIMAL;
+            } else if (vt.isTimestamp()) {
+                return TIMESTAMP;
+            } else if (vt.isDate()) {
+                return DATE;
+            } else if (vt.isTime()) {
+                return TIME;
+            } else if (vt.isInterval() || vt.isIntervalYM()) {
+                return INTERVAL;
+            } else if (vt.isBool()) {
+                return BOOLEAN;
+            }
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * Converts an extracted value to the Java type of the VoltDB column or
+     * parameter it is loaded into. Values that do not fit throw
+     * IllegalArgumentException so the row fails before it is sent.
+     */
+    enum Coercion {
+        NONE {
+            @Override
+            Object apply(Object val) {
+                return val;
+            }
+        },
+        TINYINT {
+            @Override
+            Object apply(Object val) {
+                Long l = narrow(val, Byte.MIN_VALUE, Byte.MAX_VALUE, this);
+                return l == null ? null : (Object) l.byteValue();
+            }
+        },
+        SMALLINT {
+            @Override
+            Object apply(Object val) {
+                Long l = narrow(val, Short.MIN_VALUE, Short.MAX_VALUE, this);
+                return l == null ? null : (Object) l.shortValue();
+            }
+        },
+        INTEGER {
+            @Override
+            Object apply(Object val) {
+                Long l = narrow(val, Integer.MIN_VALUE, Integer.MAX_VALUE, this);
+                return l == null ? null : (Object) l.intValue();
+            }
+        },
+        BIGINT {
+            @Override
+            Object apply(Object val) {
+                return narrow(val, Long.MIN_VALUE, Long.MAX_VALUE, this);
+            }
+        },
+        FLOAT {
+            @Override
+            Object apply(Object val) {
+                return isNull(val) ? null : (Object) ((Number) val).doubleValue();
+            }
+        },
+        DECIMAL {
+            @Override
+            Object apply(Object val) {
+                if (isNull(val)) {
+                    return null;
+                }
+                BigDecimal bd = val instanceof Double ? BigDecimal.valueOf((Double) val)
+                        : val instanceof BigDecimal ? (BigDecimal) val : BigDecimal.valueOf(((Number) val).longValue());
+                return bd.scale() > VOLT_DECIMAL_SCALE ? bd.setScale(VOLT_DECIMAL_SCALE, RoundingMode.HALF_UP) : bd;
+            }
+        },
+        STRING {
+            @Override
+            Object apply(Object val) {
+                if (isNull(val)) {
+                    return null;
+                }
+                return val instanceof BigDecimal ? ((BigDecimal) val).toPlainString() : val.toString();
+            }
+        };
+
+        abstract Object apply(Object val);
+
+        /**
+         * @return the coercion from the extracted value to the VoltDB type,
+         * null if the Vertica type can not be loaded into it.
+         */
+        static Coercion forTarget(Extractor source, VoltType target) {
+            if (target == null || source == Extractor.UNKNOWN) {
+                return NONE;
+            }
+            //Strings are parsed by VoltDB as before.
+            if (source == Extractor.STRING) {
+                return NONE;
+            }
+            boolean integral = source == Extractor.BIGINT || source == Extractor.BOOLEAN
+                    || source == Extractor.TIME || source == Extractor.INTERVAL;
+            boolean decimal = source == Extractor.DECIMAL || source == Extractor.DECIMAL_ROUNDED;
+            switch (target) {
+            case TINYINT:
+                return integral || decimal ? TINYINT : null;
+            case SMALLINT:
+                return integral || decimal ? SMALLINT : null;
+            case INTEGER:
+                return integral || decimal ? INTEGER : null;
+            case BIGINT:
+                return decimal ? BIGINT : integral ? NONE : null;
+            case FLOAT:
+                return integral || decimal || source == Extractor.FLOAT ? FLOAT : null;
+            case DECIMAL:
+                return decimal ? NONE : integral || source == Extractor.FLOAT ? DECIMAL : null;
+            case STRING:
+                return source == Extractor.VARBINARY ? null : STRING;
+            case TIMESTAMP:
+                return source == Extractor.TIMESTAMP || source == Extractor.DATE || source == Extractor.BIGINT ? NONE : null;
+            case VARBINARY:
+                return source == Extractor.VARBINARY ? NONE : null;
+            default:
+                return NONE;
+            }
+        }
+
+        //Vertica reads null integers as Long.MIN_VALUE and null floats as NaN.
+        private static boolean isNull(Object val) {
+            return val == null || (val instanceof Long && (Long) val == Long.MIN_VALUE)
+                    || (val instanceof Double && ((Double) val).isNaN());
+        }
+
+        //VoltDB reserves the minimum value of each integer type for null.
+        private static Long narrow(Object val, long min, long max, Coercion target) {
+            if (val == null) {
+                return null;
+            }
+            long l;
+            if (val instanceof BigDecimal) {
+                try {
+                    l = ((BigDecimal) val).longValueExact();
+                } catch (ArithmeticException ex) {
+                    throw new IllegalArgumentException("Value " + val + " does not fit VoltDB " + target);
+                }
+            } else if (isNull(val)) {
+                return null;
+            } else {
+                l = ((Number) val).longValue();
+            }
+            if (l <= min || l > max) {
+                throw new IllegalArgumentException("Value " + val + " does not fit VoltDB " + target);
+            }
+            return l;
+        }
+    }
+
+    //Scale of the VoltDB DECIMAL type.
+    private static final int VOLT_DECIMAL_SCALE = 12;
+    //Timestamps used to be sent as Timestamp.toString() which VoltDB parses as UTC.
+    private static final TimeZone LOCAL_TZ = TimeZone.getDefault();
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private final Extractor[] m_extractors;
+    //Null when no column needs a coercion.
+    private final Coercion[] m_coercions;
+
+    private RowConverter(Extractor[] extractors, Coercion[] coercions) {
+        m_extractors = extractors;
+        m_coercions = coercions;
+    }
+
+    /**
+     * Build the conversion plan for the given argument types. Unsupported
+     * columns are reported once here and are sent as null.
+     */
+    public static RowConverter create(ServerInterface si, SizedColumnTypes types) {
+        return create(si, types, null, null);
+    }
+
+    /**
+     * Build the conversion plan for the given argument types loaded into the
+     * given VoltDB types.
+     *
+     * @param targets VoltDB column or parameter types, null if unknown.
+     * @param target table or procedure name for error messages.
+     * @throws UdfException if the number of columns or a column type does
+     * not match.
+     */
+    public static RowConverter create(ServerInterface si, SizedColumnTypes types, VoltType[] targets, String target) {
+        Extractor[] extractors = new Extractor[types.getColumnCount()];
+        for (int i = 0; i < extractors.length; i++) {
+            extractors[i] = Extractor.forType(types.getColumnType(i));
+            if (extractors[i] == Extractor.UNKNOWN) {
+                si.log("Unknown data type please convert for loading or unsupported data type for voltDB loader: Index=%d", i);
+            }
+        }
+        if (targets == null) {
+            return new RowConverter(extractors, null);
+        }
+        if (targets.length != extractors.length) {
+            throw new UdfException(0, "VoltDB " + target + " takes " + targets.length + " values, got " + extractors.length + " arguments");
+        }
+        Coercion[] coercions = new Coercion[extractors.length];
+        boolean needed = false;
+        for (int i = 0; i < extractors.length; i++) {
+            coercions[i] = Coercion.forTarget(extractors[i], targets[i]);
+            if (coercions[i] == null) {
+                throw new UdfException(0, "Argument " + (i + 1) + " of type " + extractors[i]
+                        + " can not be loaded into VoltDB " + target + " column of type " + targets[i]);
+            }
+            needed |= coercions[i] != Coercion.NONE;
+        }
+        return new RowConverter(extractors, needed ? coercions : null);
+    }
+
+    public int getColumnCount() {
+        return m_extractors.length;
+    }
+
+    /**
+     * Format a converted value of column i the way Vertica reads it, so a
+     * rejected row can be copied back into its source table. BOOLEAN, TIME,
+     * DATE and TIMESTAMP values are turned back from what was sent to
+     * VoltDB, decimals are never written in scientific notation and
+     * INTERVAL values stay microseconds or months. Varbinary values are left
+     * to the caller.
+     *
+     * @return the text of the value, null for NULL.
+     */
+    public String toVerticaText(int i, Object val) {
+        return toVerticaText(i < m_extractors.length ? m_extractors[i] : Extractor.UNKNOWN, val);
+    }
+
+    static String toVerticaText(Extractor source, Object val) {
+        if (Coercion.isNull(val)) {
+            return null;
+        }
+        switch (source) {
+        case BOOLEAN:
+            return toLong(val) != 0 ? "t" : "f";
+        case TIME:
+            return formatWallMicros(toLong(val), source);
+        case TIMESTAMP:
+        case DATE:
+            //Timestamps loaded into a VoltDB string column are already text.
+            if (val instanceof TimestampType) {
+                return formatWallMicros(((TimestampType) val).getTime(), source);
+            }
+            return val.toString();
+        default:
+            return val instanceof BigDecimal ? ((BigDecimal) val).toPlainString() : val.toString();
+        }
+    }
+
+    private static long toLong(Object val) {
+        return val instanceof Number ? ((Number) val).longValue() : new BigDecimal(val.toString()).longValue();
+    }
+
+    //Inverse of toTimestampType and toMicrosOfDay, the micros hold the local wall clock time.
+    private static String formatWallMicros(long micros, Extractor source) {
+        long seconds = micros / 1000000;
+        long fraction = micros % 1000000;
+        if (fraction < 0) {
+            seconds--;
+            fraction += 1000000;
+        }
+        Calendar cal = new GregorianCalendar(UTC);
+        cal.setTimeInMillis(seconds * 1000);
+        String time = String.format("%02d:%02d:%02d.%06d", cal.get(Calendar.HOUR_OF_DAY),
+                cal.get(Calendar.MINUTE), cal.get(Calendar.SECOND), fraction);
+        if (source == Extractor.TIME) {
+            return time;
+        }
+        String date = String.format("%04d-%02d-%02d", cal.get(Calendar.YEAR),
+                cal.get(Calendar.MONTH) + 1, cal.get(Calendar.DAY_OF_MONTH));
+        String era = cal.get(Calendar.ERA) == GregorianCalendar.BC ? " BC" : "";
+        return source == Extractor.DATE ? date + era : date + " " + time + era;
+    }
+
+    /**
+     * Convert the current row of the reader into vals.
+     *
+     * @throws IllegalArgumentException if a value does not fit its VoltDB
+     * type.
+     */
+    public void convert(BlockReader reader, Object[] vals) {
+        final Extractor[] extractors = m_extractors;
+        final Coercion[] coercions = m_coercions;
+        if (coercions == null) {
+            for (int i = 0; i < extractors.length; i++) {
+                vals[i] = extractors[i].get(reader, i);
+            }
+            return;
+        }
+        for (int i = 0; i < extractors.length; i++) {
+            Object val = extractors[i].get(reader, i);
+            try {
+                vals[i] = coercions[i].apply(val);
+            } catch (IllegalArgumentException ex) {
+                //Keep the whole row so it can be reported.
+                vals[i] = val;
+                for (int j = i + 1; j < extractors.length; j++) {
+                    vals[j] = extractors[j].get(reader, j);
+                }
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Convert a Vertica timestamp to the VoltDB wire type without formatting
+     * it. The local wall clock time is kept, the same value VoltDB gets when
+     * parsing {@link Timestamp#toString()}, with microsecond precision.
+     */
+    static TimestampType toTimestampType(Timestamp ts) {
+        long millis = ts.getTime();
+        long seconds = millis / 1000;
+        if (millis % 1000 < 0) {
+            seconds--;
+        }
+        long wallSeconds = seconds + LOCAL_TZ.getOffset(millis) / 1000;
+        return new TimestampType(wallSeconds * 1000000 + ts.getNanos() / 1000);
+    }
+
+    /**
+     * Convert a Vertica time to microseconds since midnight of the local wall
+     * clock, VoltDB has no time of day type.
+     */
+    static long toMicrosOfDay(Time time) {
+        long millis = time.getTime();
+        long dayMillis = 24L * 60 * 60 * 1000;
+        long wallMillis = ((millis + LOCAL_TZ.getOffset(millis)) % dayMillis + dayMillis) % dayMillis;
+        return wallMillis * 1000;
+    }
+
+    /**
+     * Estimate the serialized size of a converted row.
+     */
+    static int estimateBytes(Object[] vals) {
+        int rowBytes = 0;
+        for (Object val : vals) {
+            if (val == null) {
+                rowBytes += 1;
+            } else if (val instanceof String) {
+                rowBytes += 4 + ((String) val).length();
+            } else if (val instanceof byte[]) {
+                rowBytes += 4 + ((byte[]) val).length;
+            } else if (val instanceof BigDecimal) {
+                rowBytes += 16;
+            } else {
+                rowBytes += 8;
+            }
+        }
+        return rowBytes;
+    }
+}
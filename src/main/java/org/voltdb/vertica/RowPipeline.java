@@ -0,0 +1,220 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import com.vertica.sdk.UdfException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import org.voltdb.utils.RowWithMetaData;
+
+/**
+ * Bounded hand off of converted rows from the UDx thread to sender threads.
+ * Each sender has its own single producer, single consumer ring so rows the
+ * UDx thread routes to the same sender are sent in the order they were put.
+ * No locks are taken. Senders with an empty ring park until the UDx thread
+ * publishes a row, the UDx thread parks while a ring is full or draining.
+ * Sender threads never call back into the Vertica SDK.
+ */
+final class RowPipeline {
+
+    /**
+     * Sends one row, called on a sender thread.
+     */
+    interface Sink {
+        void send(int sender, RowWithMetaData row) throws Exception;
+    }
+
+    private static final int SPINS = 100;
+    //Upper bound of a UDx thread park, it is normally unparked by a sender.
+    private static final long MAX_PARK_NANOS = 10000000;
+
+    private static final class Ring {
+        private final AtomicReferenceArray<RowWithMetaData> m_slots;
+        private final int m_mask;
+        //Next sequence to send, advanced by the sender once the row is handed to the sink.
+        private final AtomicLong m_head = new AtomicLong(0);
+        //Next sequence to publish, advanced by the UDx thread only.
+        private final AtomicLong m_tail = new AtomicLong(0);
+        //Set by the sender before it parks on an empty ring.
+        private volatile boolean m_waiting = false;
+
+        private Ring(int size) {
+            m_slots = new AtomicReferenceArray<RowWithMetaData>(size);
+            m_mask = size - 1;
+        }
+    }
+
+    private final Ring[] m_rings;
+    private final Sink m_sink;
+    private final Thread[] m_senders;
+    private volatile boolean m_closed = false;
+    private volatile Throwable m_failure;
+    //UDx thread parked on a full ring or in await, null if it is running.
+    private volatile Thread m_producer;
+
+    /**
+     * @param capacity minimum ring size of each sender, rounded up to a
+     * power of two.
+     * @param senders number of sender threads to start.
+     */
+    public RowPipeline(int capacity, int senders, Sink sink) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        m_sink = sink;
+        m_rings = new Ring[Math.max(1, senders)];
+        m_senders = new Thread[m_rings.length];
+        for (int i = 0; i < m_senders.length; i++) {
+            m_rings[i] = new Ring(size);
+            final int sender = i;
+            m_senders[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    sendLoop(sender);
+                }
+            }, "VoltDB loader sender " + i);
+            m_senders[i].setDaemon(true);
+            m_senders[i].start();
+        }
+    }
+
+    public int getSenders() {
+        return m_senders.length;
+    }
+
+    /**
+     * Publish a row to a sender, waits while its ring is full.
+     *
+     * @throws UdfException if a sender failed.
+     */
+    public void put(int sender, RowWithMetaData row) throws InterruptedException {
+        Ring ring = m_rings[sender];
+        long tail = ring.m_tail.get();
+        int spins = 0;
+        while (isFull(ring, tail)) {
+            checkFailure();
+            if (spins++ < SPINS) {
+                Thread.yield();
+            } else {
+                m_producer = Thread.currentThread();
+                if (isFull(ring, tail)) {
+                    LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                }
+                m_producer = null;
+            }
+        }
+        ring.m_slots.set((int) (tail & ring.m_mask), row);
+        //A volatile write so a sender that set m_waiting either sees the row or is unparked.
+        ring.m_tail.set(tail + 1);
+        if (ring.m_waiting) {
+            LockSupport.unpark(m_senders[sender]);
+        }
+    }
+
+    private static boolean isFull(Ring ring, long tail) {
+        return tail - ring.m_head.get() > ring.m_mask;
+    }
+
+    /**
+     * Wait until every published row has been handed to the sink.
+     *
+     * @throws UdfException if a sender failed.
+     */
+    public void await() throws InterruptedException {
+        for (Ring ring : m_rings) {
+            int spins = 0;
+            while (ring.m_head.get() < ring.m_tail.get()) {
+                checkFailure();
+                if (spins++ < SPINS) {
+                    Thread.yield();
+                } else {
+                    m_producer = Thread.currentThread();
+                    if (ring.m_head.get() < ring.m_tail.get()) {
+                        LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                    }
+                    m_producer = null;
+                }
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * Stop the senders once the rings are empty.
+     */
+    public void close() throws InterruptedException {
+        m_closed = true;
+        for (Thread sender : m_senders) {
+            LockSupport.unpark(sender);
+        }
+        for (Thread sender : m_senders) {
+            sender.join();
+        }
+    }
+
+    private void checkFailure() {
+        Throwable failure = m_failure;
+        if (failure != null) {
+            throw new UdfException(0, "Failed to send row to voltdb: " + failure.toString());
+        }
+    }
+
+    private void sendLoop(int sender) {
+        Ring ring = m_rings[sender];
+        int spins = 0;
+        while (true) {
+            long head = ring.m_head.get();
+            if (head >= ring.m_tail.get()) {
+                if (m_closed) {
+                    return;
+                }
+                if (spins++ < SPINS) {
+                    Thread.yield();
+                    continue;
+                }
+                //Idle between blocks, wait for the UDx thread to publish or close.
+                ring.m_waiting = true;
+                if (head >= ring.m_tail.get() && !m_closed) {
+                    LockSupport.park(this);
+                }
+                ring.m_waiting = false;
+                continue;
+            }
+            spins = 0;
+            int idx = (int) (head & ring.m_mask);
+            RowWithMetaData row = ring.m_slots.get(idx);
+            ring.m_slots.set(idx, null);
+            try {
+                m_sink.send(sender, row);
+            } catch (Throwable t) {
+                if (m_failure == null) {
+                    m_failure = t;
+                }
+            }
+            ring.m_head.set(head + 1);
+            Thread producer = m_producer;
+            if (producer != null) {
+                LockSupport.unpark(producer);
+            }
+        }
+    }
+}
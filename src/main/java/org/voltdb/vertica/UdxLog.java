@@ -0,0 +1,167 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import com.vertica.sdk.ParamReader;
+import com.vertica.sdk.ServerInterface;
+import com.vertica.sdk.SizedColumnTypes;
+import com.vertica.sdk.UdfException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Level controlled logging to the UDx log. Per row tracing is sampled and
+ * error logging is rate limited, so a healthy load at the default level does
+ * no logging work per row. Hot paths should check {@link #isEnabled} or
+ * {@link #traceRow} before building log arguments.
+ */
+final class UdxLog {
+
+    enum Level {
+        ERROR, WARN, INFO, DEBUG, TRACE
+    }
+
+    static final Level DEFAULT_LEVEL = Level.INFO;
+    static final int DEFAULT_SAMPLE = 1000;
+    //Error lines logged per second, the rest are counted and reported as suppressed.
+    private static final int ERRORS_PER_SECOND = 10;
+
+    private final ServerInterface m_si;
+    private final Level m_level;
+    private final int m_sample;
+    private final AtomicLong m_errorWindow = new AtomicLong(0);
+    private final AtomicInteger m_errorCount = new AtomicInteger(0);
+    private final AtomicLong m_suppressed = new AtomicLong(0);
+
+    public UdxLog(ServerInterface si, Level level, int sample) {
+        m_si = si;
+        m_level = level;
+        m_sample = Math.max(1, sample);
+    }
+
+    /**
+     * Create the log from the loglevel and logsample function parameters.
+     */
+    public static UdxLog create(ServerInterface si, ParamReader argReader) {
+        String level = null;
+        int sample = DEFAULT_SAMPLE;
+        try {
+            level = argReader.getString("loglevel");
+        } catch (UdfException udfex) {
+            ;
+        }
+        try {
+            sample = (int) argReader.getLong("logsample");
+        } catch (UdfException udfex) {
+            ;
+        }
+        return new UdxLog(si, parseLevel(level), sample);
+    }
+
+    public static void addParameterTypes(SizedColumnTypes parameterTypes) {
+        parameterTypes.addVarchar(16, "loglevel");
+        parameterTypes.addInt("logsample");
+    }
+
+    /**
+     * @param level level name, case insensitive, null for the default.
+     * @throws UdfException if the level name is not known.
+     */
+    public static Level parseLevel(String level) {
+        if (level == null || level.trim().isEmpty()) {
+            return DEFAULT_LEVEL;
+        }
+        try {
+            return Level.valueOf(level.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            throw new UdfException(0, "Unknown loglevel: " + level);
+        }
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.compareTo(m_level) <= 0;
+    }
+
+    /**
+     * @return true if row should be traced, one row in every sample rows is
+     * traced at TRACE level.
+     */
+    public boolean traceRow(long row) {
+        return m_level == Level.TRACE && row % m_sample == 0;
+    }
+
+    public void trace(String format, Object... args) {
+        if (m_level == Level.TRACE) {
+            m_si.log(format, args);
+        }
+    }
+
+    public void debug(String format, Object... args) {
+        if (isEnabled(Level.DEBUG)) {
+            m_si.log(format, args);
+        }
+    }
+
+    public void info(String format, Object... args) {
+        if (isEnabled(Level.INFO)) {
+            m_si.log(format, args);
+        }
+    }
+
+    public void warn(String format, Object... args) {
+        if (isEnabled(Level.WARN)) {
+            m_si.log(format, args);
+        }
+    }
+
+    /**
+     * Log an error unless more than the allowed number of errors were
+     * already logged in the current second.
+     */
+    public void error(String format, Object... args) {
+        long window = System.currentTimeMillis() / 1000;
+        long current = m_errorWindow.get();
+        if (window != current && m_errorWindow.compareAndSet(current, window)) {
+            m_errorCount.set(0);
+            long suppressed = m_suppressed.getAndSet(0);
+            if (suppressed > 0) {
+                m_si.log("Suppressed %d error messages", suppressed);
+            }
+        }
+        if (m_errorCount.incrementAndGet() > ERRORS_PER_SECOND) {
+            m_suppressed.incrementAndGet();
+            return;
+        }
+        m_si.log(format, args);
+    }
+
+    /**
+     * Report errors still suppressed, call when the function is done.
+     */
+    public void close() {
+        long suppressed = m_suppressed.getAndSet(0);
+        if (suppressed > 0) {
+            m_si.log("Suppressed %d error messages", suppressed);
+        }
+    }
+}
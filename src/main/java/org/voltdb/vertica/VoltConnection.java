@@ -0,0 +1,106 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import com.vertica.sdk.ParamReader;
+import com.vertica.sdk.SizedColumnTypes;
+import com.vertica.sdk.UdfException;
+import java.io.IOException;
+
+/**
+ * VoltDB servers, credentials and connect limits of a function, read from
+ * the voltservers, voltuser, voltpassword, connecttimeout and quorum
+ * function parameters.
+ */
+final class VoltConnection {
+
+    private final String m_servers;
+    private final String m_user;
+    private final String m_password;
+    private final long m_connectTimeout;
+    private final int m_quorum;
+
+    private VoltConnection(String servers, String user, String password, long connectTimeout, int quorum) {
+        m_servers = servers;
+        m_user = user;
+        m_password = password;
+        m_connectTimeout = connectTimeout;
+        m_quorum = quorum;
+    }
+
+    /**
+     * @throws UdfException if voltservers is not set.
+     */
+    public static VoltConnection create(ParamReader argReader) {
+        String servers = argReader.getString("voltservers");
+        String user = "";
+        String password = "";
+        long connectTimeout = ClientCache.DEFAULT_CONNECT_TIMEOUT_MS;
+        int quorum = ClientCache.DEFAULT_QUORUM;
+        try {
+            user = argReader.getString("voltuser");
+        } catch (UdfException udfex) {
+            ;
+        }
+        try {
+            password = argReader.getString("voltpassword");
+        } catch (UdfException udfex) {
+            ;
+        }
+        try {
+            connectTimeout = argReader.getLong("connecttimeout") * 1000;
+        } catch (UdfException udfex) {
+            ;
+        }
+        try {
+            quorum = (int) argReader.getLong("quorum");
+        } catch (UdfException udfex) {
+            ;
+        }
+        return new VoltConnection(servers, user, password, connectTimeout, quorum);
+    }
+
+    public static void addParameterTypes(SizedColumnTypes parameterTypes) {
+        parameterTypes.addVarchar(1024, "voltservers");
+        parameterTypes.addVarchar(256, "voltuser");
+        parameterTypes.addVarchar(256, "voltpassword");
+        parameterTypes.addInt("connecttimeout");
+        parameterTypes.addInt("quorum");
+    }
+
+    public String getServers() {
+        return m_servers;
+    }
+
+    public String getUser() {
+        return m_user;
+    }
+
+    /**
+     * Get a connected client from the cache, see
+     * {@link ClientCache#acquire(String, String, String, int, long, int)}.
+     */
+    public ClientCache.Handle acquire(int slot) throws InterruptedException, IOException {
+        return ClientCache.acquire(m_servers, m_user, m_password, slot, m_connectTimeout, m_quorum);
+    }
+}
@@ -32,189 +32,234 @@ import com.vertica.sdk.ScalarFunctionFactory;
 import com.vertica.sdk.ServerInterface;
 import com.vertica.sdk.SizedColumnTypes;
 import com.vertica.sdk.UdfException;
-import com.vertica.sdk.VerticaType;
 import java.io.IOException;
-import java.sql.Timestamp;
-import java.text.SimpleDateFormat;
-import java.util.concurrent.CountDownLatch;
+import org.voltdb.VoltType;
 import org.voltdb.client.Client;
-import org.voltdb.client.ClientConfig;
-import org.voltdb.client.ClientFactory;
 import org.voltdb.client.ClientResponse;
 import org.voltdb.client.ProcCallException;
-import org.voltdb.types.TimestampType;
 
 /**
  *
  */
 public class VoltDBCall extends ScalarFunctionFactory {
 
-    private Client m_client;
     private String m_procedure = "";
-    private String m_server = "localhost";
+    private VoltConnection m_connection;
+    private boolean m_async = false;
+    private int m_window = 100;
+    private boolean m_adaptive = false;
 
     public class VoltCall extends ScalarFunction {
 
+        private final ClientCache.Handle m_handle;
+        private final Client m_client;
+        private final LoadStats m_stats;
+        private final UdxLog m_log;
+        private long m_rows = 0;
+        //Outstanding asynchronous calls, null when calling synchronously.
+        private final CallWindow m_calls;
+        //Adapts the number of outstanding calls, null unless async and adaptive.
+        private final AdaptiveWindow m_flow;
+        //VoltDB parameter types of the procedure, null if unknown.
+        private final VoltType[] m_targets;
+        private RowConverter m_converter;
+        //Procedure parameters are serialized when the call is queued so one buffer is reused for all rows.
+        private Object[] m_params;
+
+        public VoltCall(ClientCache.Handle handle, UdxLog log, VoltType[] targets) {
+            m_handle = handle;
+            m_log = log;
+            m_targets = targets;
+            m_client = handle.getClient();
+            m_stats = LoadStats.register("voltdbcall", m_procedure, 0);
+            m_calls = m_async ? new CallWindow(m_window) : null;
+            m_flow = m_async && m_adaptive ? new AdaptiveWindow(m_window) : null;
+            if (m_flow != null) {
+                m_calls.setLimit(m_flow.getLimit());
+            }
+        }
+
         @Override
-        public void processBlock(ServerInterface si, BlockReader reader, BlockWriter writer) throws UdfException, DestroyInvocation {
-            long cnt = 0;
-            final String ODBC_DATE_FORMAT_STRING = "yyyy-MM-dd HH:mm:ss.SSS";
+        public void setup(ServerInterface si, SizedColumnTypes argTypes) {
+            m_converter = RowConverter.create(si, argTypes, m_targets, m_procedure);
+            m_params = new Object[m_converter.getColumnCount()];
+        }
+
+        @Override
+        public void destroy(ServerInterface si, SizedColumnTypes argTypes) {
+            m_stats.finish();
+            m_log.close();
+            //Client stays connected in the cache for the next invocation.
+            m_handle.release();
+        }
 
-            final SimpleDateFormat dfmt
-                    = new SimpleDateFormat(ODBC_DATE_FORMAT_STRING);
+        @Override
+        public void processBlock(ServerInterface si, BlockReader reader, BlockWriter writer) throws UdfException, DestroyInvocation {
+            if (m_converter == null) {
+                m_converter = RowConverter.create(si, reader.getTypeMetaData(), m_targets, m_procedure);
+                m_params = new Object[m_converter.getColumnCount()];
+            }
 
+            final Object vals[] = m_params;
+            boolean stopped = false;
             do {
                 //Read values and pass them to bulkloader.
-                Object vals[] = new Object[reader.getNumCols()];
-                SizedColumnTypes typemd = reader.getTypeMetaData();
-                //What to do with LongVarchar and LongChar
-                StringBuilder sb = new StringBuilder();
-                for (int i = 0; i < reader.getNumCols(); i++) {
-                    VerticaType vt = typemd.getColumnType(i);
-                    if (vt.isInt()) {
-                        vals[i] = reader.getLong(i);
-                        sb.append(vals[i]).append(",");
-                    } else if (vt.isStringType() || vt.isLongVarchar() || vt.isChar()) {
-                        vals[i] = reader.getString(i);
-                        sb.append(vals[i]).append(",");
-                    } else if (vt.isFloat() || vt.isNumeric()) {
-                        vals[i] = reader.getDouble(i);
-                        sb.append(vals[i]).append(",");
-                    } else if (vt.isTimestamp()) {
-                        vals[i] = reader.getTimestamp(i);
-                        if (vals[i] != null && vals[i] instanceof java.sql.Timestamp) {
-                            java.sql.Timestamp ts = (java.sql.Timestamp) vals[i];
-                            String tss = ts.toString();
-                            vals[i] = tss;
-                        }
-                        sb.append(vals[i]).append(",");
-                    } else if (vt.isDate()) {
-                        Timestamp dt = reader.getTimestamp(i);
-                        TimestampType ts = null;
-                        if (!reader.isDateNull(i)) {
-                            ts = new TimestampType(dt.getTime());
+                long start = System.nanoTime();
+                String rejected = null;
+                try {
+                    m_converter.convert(reader, vals);
+                } catch (IllegalArgumentException ex) {
+                    rejected = ex.getMessage();
+                }
+                long converted = System.nanoTime();
+                m_stats.rowConverted(converted - start);
+                if (m_log.traceRow(m_rows++)) {
+                    for (int i = 0; i < vals.length; i++) {
+                        m_log.trace("Row: %d, Current: %d, Value: %s, Type: %s", m_rows - 1, i, vals[i], vals[i] == null ? "null" : vals[i].getClass().getCanonicalName());
+                    }
+                }
+                if (m_calls != null) {
+                    //Retire the oldest call to make room, statuses are written in row order.
+                    while (m_calls.isFull()) {
+                        stopped |= retireOrStop(si, writer);
+                    }
+                    CallWindow.SlotCallback cb = m_calls.issue();
+                    if (stopped) {
+                        //Not sent once interrupted, every row still needs its status.
+                        cb.fail("Procedure call interrupted");
+                        continue;
+                    }
+                    if (rejected != null) {
+                        //Not sent, the status still has to be written in row order.
+                        cb.fail(rejected);
+                        continue;
+                    }
+                    boolean backpressure = m_handle.isBackpressured();
+                    long sent = System.nanoTime();
+                    try {
+                        if (!m_client.callProcedure(cb, m_procedure, vals)) {
+                            cb.fail("Procedure call was not queued");
                         }
-                        vals[i] = ts;
-                        sb.append(vals[i]).append(",");
-                    } else if (vt.isBool()) {
-                        vals[i] = reader.getBoolean(i) == true ? 1 : 0;
-                        sb.append(vals[i]).append(",");
-                    } else {
-                        si.log("Unknown data type please convert for loading or unsupported data type for voltDB loader: Index=%d", i);
+                    } catch (IOException ex) {
+                        cb.fail(ex.toString());
                     }
-                    si.log("Current: %d, Value: %s, Type: %s", i, vals[i], vals[i] == null ? "null" : vals[i].getClass().getCanonicalName());
+                    m_stats.rowSent(RowConverter.estimateBytes(vals), System.nanoTime() - sent,
+                            backpressure, m_calls.getOutstanding());
+                    continue;
                 }
+                if (rejected != null) {
+                    m_log.error("Failed to call procedure %s, Error: %s", m_procedure, rejected);
+                    m_stats.rowRejected();
+                    writer.setLong(1);
+                    writer.next();
+                    continue;
+                }
+                boolean backpressure = m_handle.isBackpressured();
+                boolean success = false;
                 try {
                     //Call procedure synchronously
-                    writer.setLong((m_client.callProcedure(m_procedure, vals)).getStatus() == ClientResponse.SUCCESS ? 0 : 1);
+                    success = m_client.callProcedure(m_procedure, vals).getStatus() == ClientResponse.SUCCESS;
                 } catch (IOException ex) {
-                    writer.setLong(1);
-                    si.log("Failed to call procedure %s, Error: %s", m_procedure, ex);
+                    m_log.error("Failed to call procedure %s, Error: %s", m_procedure, ex);
                 } catch (ProcCallException ex) {
-                    writer.setLong(1);
-                    si.log("Failed to call procedure %s, Error: %s", m_procedure, ex);
+                    m_log.error("Failed to call procedure %s, Error: %s", m_procedure, ex);
                 }
+                long called = System.nanoTime();
+                m_stats.rowSent(RowConverter.estimateBytes(vals), called - converted, backpressure, 1);
+                m_stats.callCompleted(success, called - converted);
+                writer.setLong(success ? 0 : 1);
+                writer.next();
             } while (reader.next());
 
+            //Every row of the block needs its status, so only this function's own calls are waited for.
+            if (m_calls != null) {
+                long start = System.nanoTime();
+                while (!m_calls.isEmpty()) {
+                    retireOrStop(si, writer);
+                }
+                m_stats.flushed(System.nanoTime() - start);
+            }
+        }
+
+        /**
+         * Retire the oldest call. An interrupted wait is reported and the
+         * call is retired by the next attempt, every sent call gets a
+         * response or times out in the client.
+         *
+         * @return true if the wait was interrupted.
+         */
+        private boolean retireOrStop(ServerInterface si, BlockWriter writer) {
             try {
-                m_client.drain();
-            } catch (Exception ex) {
-                si.log("Failed to flush voltdb bulkloader", ex);
+                retire(si, writer);
+                return false;
+            } catch (InterruptedException ex) {
+                m_log.error("Procedure call interrupted: %s", ex);
+                return true;
             }
-            //Report
+        }
+
+        private void retire(ServerInterface si, BlockWriter writer) throws InterruptedException {
+            boolean success = m_calls.retire();
+            m_stats.callCompleted(success, m_calls.lastLatencyNanos());
+            if (m_flow != null) {
+                m_calls.setLimit(m_flow.update(m_calls.lastLatencyNanos(), m_handle.isBackpressured()));
+            }
+            if (!success) {
+                m_log.error("Failed to call procedure %s, Error: %s", m_procedure, m_calls.lastError());
+            }
+            writer.setLong(success ? 0 : 1);
+            writer.next();
         }
 
     }
 
     @Override
     public ScalarFunction createScalarFunction(ServerInterface si) {
+        ClientCache.Handle handle;
+        UdxLog log;
+        VoltType[] targets;
         try {
             ParamReader argReader = si.getParamReader();
+            log = UdxLog.create(si, argReader);
 
             int numCols = argReader.getNumCols();
-            si.log("No of params: %d", numCols);
+            log.debug("No of params: %d", numCols);
             if (numCols < 2) {
                 throw new UdfException(0,
                     "Must supply at least 2 arguments");
             }
 
-            m_server = argReader.getString("voltservers");
+            m_connection = VoltConnection.create(argReader);
             try {
                 m_procedure = argReader.getString("procedure");
             } catch (UdfException udfex) {
                 ;
             }
-
-            si.log("Server: %s, Procedure: %s", m_server, m_procedure);
-            connect(m_server);
-            if (m_client == null) {
-                throw new UdfException(0, "Failed to connect to server: " + m_server);
+            try {
+                m_async = argReader.getBoolean("async");
+            } catch (UdfException udfex) {
+                m_async = false;
+            }
+            try {
+                m_window = (int) argReader.getLong("window");
+            } catch (UdfException udfex) {
+                m_window = 100;
+            }
+            try {
+                m_adaptive = argReader.getBoolean("adaptive");
+            } catch (UdfException udfex) {
+                m_adaptive = false;
             }
+
+            log.info("Server: %s, Procedure: %s, Async: %s, Window: %d, Adaptive: %s", m_connection.getServers(), m_procedure, m_async, m_window, m_adaptive);
+            handle = m_connection.acquire(0);
+            targets = LoadSession.fetchTypes(log, m_connection.getServers(), handle.getClient(), true, m_procedure);
         } catch (Exception ex) {
             si.log("Failed to load data in voltdb: %s", ex.toString());
             throw new UdfException(0, "Failed to load data in voltdb: " + ex.toString());
         }
 
-        return new VoltCall();
-    }
-
-    /**
-     * Connect to a single server with retry. Limited exponential backoff. No
-     * timeout. This will run until the process is killed if it's not able to
-     * connect.
-     *
-     * @param server hostname:port or just hostname (hostname can be ip).
-     */
-    void connectToOneServerWithRetry(String server) {
-        int sleep = 1000;
-        while (true) {
-            try {
-                m_client.createConnection(server);
-                break;
-            } catch (Exception e) {
-                System.err.printf("Connection failed - retrying in %d second(s).\n", sleep / 1000);
-                try {
-                    Thread.sleep(sleep);
-                } catch (Exception interruted) {
-                }
-                if (sleep < 8000) {
-                    sleep += sleep;
-                }
-            }
-        }
-        System.out.printf("Connected to VoltDB node at: %s.\n", server);
-    }
-
-    /**
-     * Connect to a set of servers in parallel. Each will retry until
-     * connection. This call will block until all have connected.
-     *
-     * @param servers A comma separated list of servers using the hostname:port
-     * syntax (where :port is optional).
-     * @throws InterruptedException if anything bad happens with the threads.
-     */
-    void connect(String servers) throws InterruptedException {
-        System.out.println("Connecting to VoltDB...");
-
-        String[] serverArray = servers.split(",");
-        final CountDownLatch connections = new CountDownLatch(serverArray.length);
-
-        ClientConfig clientConfig = new ClientConfig("", "");
-
-        m_client = ClientFactory.createClient(clientConfig);
-
-        // use a new thread to connect to each server
-        for (final String server : serverArray) {
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    connectToOneServerWithRetry(server);
-                    connections.countDown();
-                }
-            }).start();
-        }
-        // block until all have connected
-        connections.await();
+        return new VoltCall(handle, log, targets);
     }
 
     @Override
@@ -229,8 +274,12 @@ public class VoltDBCall extends ScalarFunctionFactory {
     public void getParameterType(ServerInterface si,
                                  SizedColumnTypes parameterTypes)
     {
-        parameterTypes.addVarchar(1024, "voltservers");
+        VoltConnection.addParameterTypes(parameterTypes);
         parameterTypes.addVarchar(1024, "procedure");
+        parameterTypes.addBool("async");
+        parameterTypes.addInt("window");
+        parameterTypes.addBool("adaptive");
+        UdxLog.addParameterTypes(parameterTypes);
     }
 
 }
@@ -26,27 +26,16 @@ import com.vertica.sdk.BlockReader;
 import com.vertica.sdk.BlockWriter;
 import com.vertica.sdk.ColumnTypes;
 import com.vertica.sdk.DestroyInvocation;
-import com.vertica.sdk.ParamReader;
 import com.vertica.sdk.ScalarFunction;
 import com.vertica.sdk.ScalarFunctionFactory;
 import com.vertica.sdk.ServerInterface;
 import com.vertica.sdk.SizedColumnTypes;
 import com.vertica.sdk.UdfException;
-import com.vertica.sdk.VerticaType;
-import java.sql.Timestamp;
-import java.text.SimpleDateFormat;
-import java.util.concurrent.CountDownLatch;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
-import org.voltdb.client.Client;
-import org.voltdb.client.ClientConfig;
-import org.voltdb.client.ClientFactory;
-import org.voltdb.client.ClientImpl;
 import org.voltdb.client.ClientResponse;
-import org.voltdb.types.TimestampType;
 import org.voltdb.utils.BulkLoaderErrorHandler;
-import org.voltdb.utils.CSVBulkDataLoader;
-import org.voltdb.utils.CSVDataLoader;
-import org.voltdb.utils.CSVTupleDataLoader;
 import org.voltdb.utils.RowWithMetaData;
 
 /**
@@ -54,242 +43,215 @@ import org.voltdb.utils.RowWithMetaData;
  */
 public class VoltDBLoader extends ScalarFunctionFactory {
 
-    private Client m_client;
-    private String m_table;
-    private String m_procedure = "";
-    private CSVDataLoader m_loader;
-    private int m_batch = 200;
-
-    private String m_server = "localhost";
+    //Marks rows of a coalesced block that did not fit the VoltDB schema.
+    private static final Object[] REJECTED = new Object[0];
 
+    /**
+     * Error accounting for one voltdbload invocation. Failures are counted
+     * on the client callback thread, the UDx thread only polls the volatile
+     * stop flag. Failed rows are logged, or appended to the reject file when
+     * there is one.
+     */
     public static class VerticaBulkLoaderErrorHandler implements BulkLoaderErrorHandler {
-        private final ServerInterface m_si;
-        private final static AtomicLong m_failedCount = new AtomicLong(0);
-        public static long m_maxerrors = 100;
-        public static boolean m_stop = false;
-
-        public VerticaBulkLoaderErrorHandler(ServerInterface si) {
-            m_si = si;
+        private final UdxLog m_log;
+        private final AtomicLong m_failedCount = new AtomicLong(0);
+        private final long m_maxerrors;
+        private final LoadStats m_stats;
+        private final RejectFile m_rejects;
+        private volatile boolean m_stop = false;
+
+        public VerticaBulkLoaderErrorHandler(UdxLog log, long maxerrors, LoadStats stats, RejectFile rejects) {
+            m_log = log;
+            m_maxerrors = maxerrors;
+            m_stats = stats;
+            m_rejects = rejects;
         }
 
         @Override
         public boolean handleError(RowWithMetaData metaData, ClientResponse response, String error) {
-            if (response != null) {
-                byte status = response.getStatus();
-                if (status != ClientResponse.SUCCESS) {
-                    m_si.log("Failed to Insert Row: %s, Response: %s, Error: %s", metaData.rawLine, response.getStatus(), response.getStatusString());
-                    long fc = m_failedCount.incrementAndGet();
-                    if ((m_maxerrors > 0 && fc > m_maxerrors)
-                            || (status != ClientResponse.USER_ABORT && status != ClientResponse.GRACEFUL_FAILURE)) {
-                        m_stop = true;
-                        return true;
-                    }
-                }
+            //Without a response the row was not queued or the connection failed, it still counts as a sent row.
+            byte status = response != null ? response.getStatus() : 0;
+            if (response != null && status == ClientResponse.SUCCESS) {
+                return false;
+            }
+            String message = response != null ? response.getStatusString() : error;
+            if (m_rejects != null) {
+                m_rejects.write(metaData.lineNumber, status, message, values(metaData.rawLine));
+            } else {
+                m_log.error("Failed to Insert Row: %s, Response: %s, Error: %s", metaData.rawLine, status, message);
+            }
+            long fc = m_failedCount.incrementAndGet();
+            m_stats.rowFailed();
+            if ((m_maxerrors > 0 && fc > m_maxerrors)
+                    || (status != ClientResponse.USER_ABORT && status != ClientResponse.GRACEFUL_FAILURE)) {
+                m_stop = true;
+                return true;
             }
             return false;
         }
 
+        /**
+         * Count a row that failed before it was sent to VoltDB.
+         */
+        public void rowRejected(long lineNumber, Object rawLine, String error) {
+            if (m_rejects != null) {
+                m_rejects.write(lineNumber, 0, error, values(rawLine));
+            } else {
+                m_log.error("Failed to Insert Row: %s, Error: %s", rawLine, error);
+            }
+            long fc = m_failedCount.incrementAndGet();
+            m_stats.rowRejected();
+            if (m_maxerrors > 0 && fc > m_maxerrors) {
+                m_stop = true;
+            }
+        }
+
         @Override
         public boolean hasReachedErrorLimit() {
-            long fc = m_failedCount.get();
-            m_stop = m_maxerrors > 0 && fc > m_maxerrors;
+            if (!m_stop && m_maxerrors > 0 && m_failedCount.get() > m_maxerrors) {
+                m_stop = true;
+            }
             return m_stop;
         }
 
+        private static Object[] values(Object rawLine) {
+            return rawLine instanceof RawLine ? ((RawLine) rawLine).getValues() : new Object[] { rawLine };
+        }
+
+        public boolean isStopped() {
+            return m_stop;
+        }
+
+        public long getFailedCount() {
+            return m_failedCount.get();
+        }
+
+        public long getMaxErrors() {
+            return m_maxerrors;
+        }
+
     }
 
     public class VoltLoader extends ScalarFunction {
 
-        private CSVDataLoader m_loader;
+        private final LoadSession m_session;
+        //Null unless rows are coalesced by key.
+        private final KeyCoalescer m_coalescer;
+        //Converted values of the current block, null for superseded rows.
+        private final List<Object[]> m_block = new ArrayList<Object[]>();
 
-        public VoltLoader(CSVDataLoader loader) {
-            m_loader = loader;
+        public VoltLoader(LoadSession session, KeyCoalescer coalescer) {
+            m_session = session;
+            m_coalescer = coalescer;
         }
 
         @Override
-        public void processBlock(ServerInterface si, BlockReader reader, BlockWriter writer) throws UdfException, DestroyInvocation {
-            long cnt = 0;
-            final String ODBC_DATE_FORMAT_STRING = "yyyy-MM-dd HH:mm:ss.SSS";
+        public void setup(ServerInterface si, SizedColumnTypes argTypes) {
+            m_session.setup(si, argTypes);
+        }
 
-            final SimpleDateFormat dfmt
-                    = new SimpleDateFormat(ODBC_DATE_FORMAT_STRING);
+        @Override
+        public void destroy(ServerInterface si, SizedColumnTypes argTypes) {
+            m_session.close();
+        }
 
+        /**
+         * Rows are handed to the loader and reported with status 0 once
+         * queued, the loader is only flushed when the function is destroyed.
+         * Rows with values that do not fit the VoltDB schema, and rows after
+         * the error limit is reached, get status 1.
+         * Rows that fail later are logged and counted by the error handler
+         * and reported in the voltdbstats metrics.
+         */
+        @Override
+        public void processBlock(ServerInterface si, BlockReader reader, BlockWriter writer) throws UdfException, DestroyInvocation {
+            if (m_coalescer != null) {
+                processCoalesced(si, reader, writer);
+                return;
+            }
+            boolean stopped = false;
             do {
-                if (VerticaBulkLoaderErrorHandler.m_stop) {
-                    si.log("Reached max error limit for voltload: limit(%d)", VerticaBulkLoaderErrorHandler.m_maxerrors);
-                    break;
-                }
-                //Read values and pass them to bulkloader.
-                Object vals[] = new Object[reader.getNumCols()];
-                SizedColumnTypes typemd = reader.getTypeMetaData();
-                //What to do with LongVarchar and LongChar
-                StringBuilder sb = new StringBuilder();
-                for (int i = 0; i < reader.getNumCols(); i++) {
-                    VerticaType vt = typemd.getColumnType(i);
-                    if (vt.isInt()) {
-                        vals[i] = reader.getLong(i);
-                        sb.append(vals[i]).append(",");
-                    } else if (vt.isStringType() || vt.isLongVarchar() || vt.isChar()) {
-                        vals[i] = reader.getString(i);
-                        sb.append(vals[i]).append(",");
-                    } else if (vt.isFloat() || vt.isNumeric()) {
-                        vals[i] = reader.getDouble(i);
-                        sb.append(vals[i]).append(",");
-                    } else if (vt.isTimestamp()) {
-                        vals[i] = reader.getTimestamp(i);
-                        if (vals[i] != null && vals[i] instanceof java.sql.Timestamp) {
-                            java.sql.Timestamp ts = (java.sql.Timestamp) vals[i];
-                            String tss = ts.toString();
-                            vals[i] = tss;
-                        }
-                        sb.append(vals[i]).append(",");
-                    } else if (vt.isDate()) {
-                        Timestamp dt = reader.getTimestamp(i);
-                        TimestampType ts = null;
-                        if (!reader.isDateNull(i)) {
-                            ts = new TimestampType(dt.getTime());
-                        }
-                        vals[i] = ts;
-                        sb.append(vals[i]).append(",");
-                    } else if (vt.isBool()) {
-                        vals[i] = reader.getBoolean(i) == true ? 1 : 0;
-                        sb.append(vals[i]).append(",");
-                    } else {
-                        si.log("Unknown data type please convert for loading or unsupported data type for voltDB loader: Index=%d", i);
-                    }
-                    //si.log("Current: %d, Value: %s, Type: %s", i, vals[i], vals[i] == null ? "null" : vals[i].getClass().getCanonicalName());
-                }
-                try {
-                    m_loader.insertRow(new RowWithMetaData(sb.toString(), cnt++), vals);
-                    writer.setLong(0);
-                } catch (InterruptedException ex) {
-                    si.log("Bulkloader interrupted: %s", ex);
+                if (stopped || (stopped = m_session.isStopped())) {
+                    //Not sent once the error limit is reached, every row still needs its status.
                     writer.setLong(1);
-                    break;
+                } else {
+                    try {
+                        writer.setLong(m_session.insertRow(si, reader) < 0 ? 1 : 0);
+                    } catch (InterruptedException ex) {
+                        m_session.getLog().error("Bulkloader interrupted: %s", ex);
+                        writer.setLong(1);
+                        stopped = true;
+                    }
                 }
+                writer.next();
             } while (reader.next());
+        }
 
-            try {
-                if (m_loader != null) {
-                   m_loader.flush();
+        /**
+         * Only the last row of each key in the block is queued, in block
+         * order. Earlier rows of the key get status 0 without being sent.
+         */
+        private void processCoalesced(ServerInterface si, BlockReader reader, BlockWriter writer) {
+            m_block.clear();
+            m_coalescer.reset();
+            long firstLine = m_session.getLineNumber();
+            int rows = 0;
+            do {
+                Object[] vals = m_session.convertRow(si, reader);
+                if (vals == null) {
+                    vals = REJECTED;
+                } else {
+                    int superseded = m_coalescer.put(vals, rows);
+                    if (superseded >= 0) {
+                        m_block.set(superseded, null);
+                        m_session.getStats().rowCoalesced();
+                    }
                 }
-                if (m_client != null) {
-                    m_client.drain();
+                m_block.add(vals);
+                rows++;
+            } while (reader.next());
+
+            boolean stopped = false;
+            for (int i = 0; i < rows; i++) {
+                Object[] vals = m_block.get(i);
+                if (vals == REJECTED) {
+                    writer.setLong(1);
+                } else if (vals == null) {
+                    writer.setLong(0);
+                } else if (stopped || (stopped = m_session.isStopped())) {
+                    //Not sent once the error limit is reached.
+                    writer.setLong(1);
+                } else {
+                    try {
+                        m_session.queueRow(vals, firstLine + i);
+                        writer.setLong(0);
+                    } catch (InterruptedException ex) {
+                        m_session.getLog().error("Bulkloader interrupted: %s", ex);
+                        writer.setLong(1);
+                        stopped = true;
+                    }
                 }
-            } catch (Exception ex) {
-                si.log("Failed to flush voltdb bulkloader: %s", ex);
+                writer.next();
             }
-            //Report
-            si.log("voltload failed to load %d rows, see UDx logs for row details.", VerticaBulkLoaderErrorHandler.m_failedCount.intValue());
         }
 
     }
 
     @Override
     public ScalarFunction createScalarFunction(ServerInterface si) {
+        String keys;
         try {
-            ParamReader argReader = si.getParamReader();
-
-            int numCols = argReader.getNumCols();
-            si.log("No of params: %d", numCols);
-            if (numCols < 2) {
-                throw new UdfException(0,
-                    "Must supply at least 2 arguments");
-            }
-
-            m_server = argReader.getString("voltservers");
-            try {
-                m_table = argReader.getString("volttable");
-            } catch (UdfException udfex) {
-                ;
-            }
-            try {
-                m_procedure = argReader.getString("procedure");
-            } catch (UdfException udfex) {
-                ;
-            }
-            try {
-                VerticaBulkLoaderErrorHandler.m_maxerrors = argReader.getLong("maxerrors");
-            } catch (UdfException udfex) {
-                VerticaBulkLoaderErrorHandler.m_maxerrors = 100;
-            }
-
-            si.log("Server: %s, Max errors: %d", m_server, VerticaBulkLoaderErrorHandler.m_maxerrors);
-            connect(m_server);
-            if (m_client != null) {
-                if (m_procedure != null && !m_procedure.trim().isEmpty()) {
-                    si.log("Procedure: %s", m_procedure);
-                    m_loader = new CSVTupleDataLoader((ClientImpl) m_client, m_procedure, new VerticaBulkLoaderErrorHandler(si));
-                } else {
-                    si.log("Table: %s", m_table);
-                    m_loader = new CSVBulkDataLoader((ClientImpl) m_client, m_table, m_batch, new VerticaBulkLoaderErrorHandler(si));
-                }
-            }
-        } catch (Exception ex) {
-            si.log("Failed to load data in voltdb: %s", ex.toString());
-            throw new UdfException(0, "Failed to load data in voltdb: " + ex.toString());
+            keys = si.getParamReader().getString("coalescekey");
+        } catch (UdfException udfex) {
+            keys = "";
         }
-
-        return new VoltLoader(m_loader);
-    }
-
-    /**
-     * Connect to a single server with retry. Limited exponential backoff. No
-     * timeout. This will run until the process is killed if it's not able to
-     * connect.
-     *
-     * @param server hostname:port or just hostname (hostname can be ip).
-     */
-    void connectToOneServerWithRetry(String server) {
-        int sleep = 1000;
-        while (true) {
-            try {
-                m_client.createConnection(server);
-                break;
-            } catch (Exception e) {
-                System.err.printf("Connection failed - retrying in %d second(s).\n", sleep / 1000);
-                try {
-                    Thread.sleep(sleep);
-                } catch (Exception interruted) {
-                }
-                if (sleep < 8000) {
-                    sleep += sleep;
-                }
-            }
-        }
-        System.out.printf("Connected to VoltDB node at: %s.\n", server);
-    }
-
-    /**
-     * Connect to a set of servers in parallel. Each will retry until
-     * connection. This call will block until all have connected.
-     *
-     * @param servers A comma separated list of servers using the hostname:port
-     * syntax (where :port is optional).
-     * @throws InterruptedException if anything bad happens with the threads.
-     */
-    void connect(String servers) throws InterruptedException {
-        System.out.println("Connecting to VoltDB...");
-
-        String[] serverArray = servers.split(",");
-        final CountDownLatch connections = new CountDownLatch(serverArray.length);
-
-        ClientConfig clientConfig = new ClientConfig("", "");
-
-        m_client = ClientFactory.createClient(clientConfig);
-
-        // use a new thread to connect to each server
-        for (final String server : serverArray) {
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    connectToOneServerWithRetry(server);
-                    connections.countDown();
-                }
-            }).start();
+        KeyCoalescer coalescer = keys.trim().isEmpty() ? null
+                : new KeyCoalescer(LoadSession.parsePositions("coalescekey", keys));
+        LoadSession session = LoadSession.open(si, "voltdbload");
+        if (coalescer != null) {
+            session.getLog().info("Coalesce key: %s", keys);
         }
-        // block until all have connected
-        connections.await();
+        return new VoltLoader(session, coalescer);
     }
 
     @Override
@@ -304,12 +266,8 @@ public class VoltDBLoader extends ScalarFunctionFactory {
     public void getParameterType(ServerInterface si,
                                  SizedColumnTypes parameterTypes)
     {
-        //si.log("Param types: %d", parameterTypes.getColumnCount());
-        parameterTypes.addVarchar(1024, "voltservers");
-        parameterTypes.addVarchar(512, "volttable");
-        parameterTypes.addVarchar(1024, "procedure");
-        parameterTypes.addInt("maxerrors");
-        //si.log("Param types: %d", parameterTypes.getColumnCount());
+        LoadSession.addParameterTypes(parameterTypes);
+        parameterTypes.addVarchar(256, "coalescekey");
     }
 
 }
@@ -0,0 +1,387 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import com.vertica.sdk.BlockReader;
+import com.vertica.sdk.BlockWriter;
+import com.vertica.sdk.ColumnTypes;
+import com.vertica.sdk.DestroyInvocation;
+import com.vertica.sdk.ParamReader;
+import com.vertica.sdk.ScalarFunction;
+import com.vertica.sdk.ScalarFunctionFactory;
+import com.vertica.sdk.ServerInterface;
+import com.vertica.sdk.SizedColumnTypes;
+import com.vertica.sdk.UdfException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.client.Client;
+import org.voltdb.client.ClientResponse;
+import org.voltdb.client.ProcedureCallback;
+
+/**
+ * Calls a procedure for each row and returns columns of the first row of its
+ * first result table, NULL if there is no row or the call failed.
+ */
+public class VoltDBLookup extends ScalarFunctionFactory {
+
+    private static final int DEFAULT_MAX_LENGTH = 65000;
+
+    private String m_procedure = "";
+    private VoltConnection m_connection;
+    private String[] m_columns = new String[0];
+    private String m_delimiter = "|";
+    private int m_window = 100;
+    private int m_cacheSize = 100000;
+    private long m_cacheTtl = 60000;
+
+    public class VoltLookup extends ScalarFunction {
+
+        private final ClientCache.Handle m_handle;
+        private final Client m_client;
+        private final LoadStats m_stats;
+        private final UdxLog m_log;
+        private final CallWindow m_calls;
+        //VoltDB parameter types of the procedure, null if unknown.
+        private final VoltType[] m_targets;
+        //Cache keys of this procedure on these servers.
+        private final String m_scope;
+        private final int m_maxLength;
+        private RowConverter m_converter;
+        private long m_rows = 0;
+        //Result or Call of each row of the current block.
+        private final List<Object> m_results = new ArrayList<Object>();
+        //Calls of the current block, identical keys share one call.
+        private final Map<LookupCache.Key, Call> m_inBlock = new HashMap<LookupCache.Key, Call>();
+
+        public VoltLookup(ClientCache.Handle handle, UdxLog log, VoltType[] targets, int maxLength) {
+            m_handle = handle;
+            m_log = log;
+            m_targets = targets;
+            m_maxLength = maxLength;
+            m_client = handle.getClient();
+            m_stats = LoadStats.register("voltdblookup", m_procedure, 0);
+            m_calls = new CallWindow(m_window);
+            m_scope = m_connection.getServers() + "|" + m_connection.getUser() + "|" + m_procedure.toUpperCase() + "|" + joinColumns() + "|" + m_delimiter + "|" + maxLength;
+        }
+
+        @Override
+        public void setup(ServerInterface si, SizedColumnTypes argTypes) {
+            m_converter = RowConverter.create(si, argTypes, m_targets, m_procedure);
+        }
+
+        @Override
+        public void destroy(ServerInterface si, SizedColumnTypes argTypes) {
+            m_stats.finish();
+            m_log.close();
+            //Client stays connected in the cache for the next invocation.
+            m_handle.release();
+        }
+
+        @Override
+        public void processBlock(ServerInterface si, BlockReader reader, BlockWriter writer) throws UdfException, DestroyInvocation {
+            if (m_converter == null) {
+                m_converter = RowConverter.create(si, reader.getTypeMetaData(), m_targets, m_procedure);
+            }
+
+            m_results.clear();
+            m_inBlock.clear();
+            try {
+                do {
+                    long start = System.nanoTime();
+                    //Parameters are kept as the cache key, so every row gets its own array.
+                    Object vals[] = new Object[m_converter.getColumnCount()];
+                    try {
+                        m_converter.convert(reader, vals);
+                    } catch (IllegalArgumentException ex) {
+                        m_stats.rowConverted(System.nanoTime() - start);
+                        m_log.error("Failed to call procedure %s, Error: %s", m_procedure, ex.getMessage());
+                        m_stats.rowRejected();
+                        m_results.add(null);
+                        continue;
+                    }
+                    m_stats.rowConverted(System.nanoTime() - start);
+                    if (m_log.traceRow(m_rows++)) {
+                        for (int i = 0; i < vals.length; i++) {
+                            m_log.trace("Row: %d, Current: %d, Value: %s, Type: %s", m_rows - 1, i, vals[i], vals[i] == null ? "null" : vals[i].getClass().getCanonicalName());
+                        }
+                    }
+
+                    LookupCache.Key key = new LookupCache.Key(m_scope, vals);
+                    Object cached = LookupCache.get(key);
+                    if (cached != LookupCache.NOT_FOUND) {
+                        m_stats.rowCached();
+                        m_results.add(cached);
+                        continue;
+                    }
+                    Call call = m_inBlock.get(key);
+                    if (call != null) {
+                        m_stats.rowCached();
+                        m_results.add(call);
+                        continue;
+                    }
+                    while (m_calls.isFull()) {
+                        retire();
+                    }
+                    call = new Call(key, m_calls.issue());
+                    m_inBlock.put(key, call);
+                    m_results.add(call);
+                    boolean backpressure = m_handle.isBackpressured();
+                    long sent = System.nanoTime();
+                    try {
+                        if (!m_client.callProcedure(call, m_procedure, vals)) {
+                            call.m_slot.fail("Procedure call was not queued");
+                        }
+                    } catch (IOException ex) {
+                        call.m_slot.fail(ex.toString());
+                    }
+                    m_stats.rowSent(RowConverter.estimateBytes(vals), System.nanoTime() - sent,
+                            backpressure, m_calls.getOutstanding());
+                } while (reader.next());
+
+                //Results are written in row order once every call of the block is back.
+                long start = System.nanoTime();
+                while (!m_calls.isEmpty()) {
+                    retire();
+                }
+                m_stats.flushed(System.nanoTime() - start);
+            } catch (InterruptedException ex) {
+                m_log.error("Procedure call interrupted: %s", ex);
+                throw new UdfException(0, "Procedure call interrupted: " + ex.toString());
+            }
+
+            for (Object result : m_results) {
+                if (result instanceof Call) {
+                    result = ((Call) result).m_value;
+                }
+                if (result == null) {
+                    writer.setStringNull();
+                } else {
+                    writer.setString((String) result);
+                }
+                writer.next();
+            }
+        }
+
+        private void retire() throws InterruptedException {
+            boolean success = m_calls.retire();
+            m_stats.callCompleted(success, m_calls.lastLatencyNanos());
+            if (!success) {
+                m_log.error("Failed to call procedure %s, Error: %s", m_procedure, m_calls.lastError());
+            }
+        }
+
+        /**
+         * Outstanding call of one key, completes its window slot after the
+         * result is extracted and cached.
+         */
+        private class Call implements ProcedureCallback {
+            private final LookupCache.Key m_key;
+            private final CallWindow.SlotCallback m_slot;
+            //Published to the UDx thread by the window slot.
+            private String m_value;
+
+            Call(LookupCache.Key key, CallWindow.SlotCallback slot) {
+                m_key = key;
+                m_slot = slot;
+            }
+
+            @Override
+            public void clientCallback(ClientResponse response) throws Exception {
+                if (response.getStatus() == ClientResponse.SUCCESS) {
+                    VoltTable[] results = response.getResults();
+                    try {
+                        m_value = results.length == 0 ? null : extract(results[0], m_columns, m_delimiter, m_maxLength);
+                    } catch (IllegalArgumentException ex) {
+                        m_slot.fail(ex.getMessage());
+                        return;
+                    }
+                    //Failed calls are not cached so the next block retries them.
+                    LookupCache.put(m_key, m_value, m_cacheTtl, m_cacheSize);
+                }
+                m_slot.clientCallback(response);
+            }
+        }
+    }
+
+    /**
+     * @return the given columns of the first row of the table joined by the
+     * delimiter, the first column if none are given, null if the table has
+     * no rows or a single column is NULL.
+     * @throws IllegalArgumentException if a column does not exist.
+     */
+    static String extract(VoltTable table, String[] columns, String delimiter, int maxLength) {
+        if (!table.advanceRow()) {
+            return null;
+        }
+        int count = Math.max(1, columns.length);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            int index = columns.length == 0 ? 0 : table.getColumnIndex(columns[i]);
+            Object value = table.get(index, table.getColumnType(index));
+            if (table.wasNull()) {
+                value = null;
+            }
+            if (count == 1 && value == null) {
+                return null;
+            }
+            if (i > 0) {
+                sb.append(delimiter);
+            }
+            if (value instanceof byte[]) {
+                RawLine.appendHex(sb, (byte[]) value);
+            } else if (value != null) {
+                sb.append(value);
+            }
+        }
+        return truncate(sb.toString(), maxLength);
+    }
+
+    /**
+     * @return the longest prefix of value that fits maxBytes in UTF-8.
+     */
+    static String truncate(String value, int maxBytes) {
+        int bytes = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            int len;
+            if (c < 0x80) {
+                len = 1;
+            } else if (c < 0x800) {
+                len = 2;
+            } else if (Character.isHighSurrogate(c)) {
+                len = 4;
+            } else {
+                len = 3;
+            }
+            if (bytes + len > maxBytes) {
+                return value.substring(0, i);
+            }
+            bytes += len;
+            if (len == 4) {
+                i++;
+            }
+        }
+        return value;
+    }
+
+    private String joinColumns() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < m_columns.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(m_columns[i]);
+        }
+        return sb.toString();
+    }
+
+    private static int maxLength(ServerInterface si) {
+        try {
+            return (int) si.getParamReader().getLong("maxlength");
+        } catch (UdfException udfex) {
+            return DEFAULT_MAX_LENGTH;
+        }
+    }
+
+    @Override
+    public ScalarFunction createScalarFunction(ServerInterface si) {
+        ClientCache.Handle handle;
+        UdxLog log;
+        VoltType[] targets;
+        try {
+            ParamReader argReader = si.getParamReader();
+            log = UdxLog.create(si, argReader);
+
+            m_connection = VoltConnection.create(argReader);
+            m_procedure = argReader.getString("procedure");
+            try {
+                String columns = argReader.getString("columns").trim();
+                m_columns = columns.isEmpty() ? new String[0] : columns.split("\\s*,\\s*");
+            } catch (UdfException udfex) {
+                m_columns = new String[0];
+            }
+            try {
+                m_delimiter = argReader.getString("delimiter");
+            } catch (UdfException udfex) {
+                m_delimiter = "|";
+            }
+            try {
+                m_window = (int) argReader.getLong("window");
+            } catch (UdfException udfex) {
+                m_window = 100;
+            }
+            try {
+                m_cacheSize = (int) argReader.getLong("cachesize");
+            } catch (UdfException udfex) {
+                m_cacheSize = 100000;
+            }
+            try {
+                m_cacheTtl = argReader.getLong("cachettl") * 1000;
+            } catch (UdfException udfex) {
+                m_cacheTtl = 60000;
+            }
+
+            log.info("Server: %s, Procedure: %s, Columns: %s, Window: %d, Cache size: %d, Cache ttl: %d ms",
+                    m_connection.getServers(), m_procedure, joinColumns(), m_window, m_cacheSize, m_cacheTtl);
+            handle = m_connection.acquire(0);
+            targets = LoadSession.fetchTypes(log, m_connection.getServers(), handle.getClient(), true, m_procedure);
+        } catch (Exception ex) {
+            si.log("Failed to look up data in voltdb: %s", ex.toString());
+            throw new UdfException(0, "Failed to look up data in voltdb: " + ex.toString());
+        }
+
+        return new VoltLookup(handle, log, targets, maxLength(si));
+    }
+
+    @Override
+    public void getPrototype(ServerInterface si, ColumnTypes argTypes, ColumnTypes returnType) {
+        argTypes.addAny();
+        returnType.addVarchar();
+    }
+
+    @Override
+    public void getReturnType(ServerInterface si, SizedColumnTypes argTypes, SizedColumnTypes returnType) {
+        returnType.addVarchar(maxLength(si));
+    }
+
+    @Override
+    public void getParameterType(ServerInterface si,
+                                 SizedColumnTypes parameterTypes)
+    {
+        VoltConnection.addParameterTypes(parameterTypes);
+        parameterTypes.addVarchar(1024, "procedure");
+        parameterTypes.addVarchar(1024, "columns");
+        parameterTypes.addVarchar(64, "delimiter");
+        parameterTypes.addInt("maxlength");
+        parameterTypes.addInt("window");
+        parameterTypes.addInt("cachesize");
+        parameterTypes.addInt("cachettl");
+        UdxLog.addParameterTypes(parameterTypes);
+    }
+
+}
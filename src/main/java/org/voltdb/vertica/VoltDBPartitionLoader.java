@@ -0,0 +1,260 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import com.vertica.sdk.ColumnTypes;
+import com.vertica.sdk.DestroyInvocation;
+import com.vertica.sdk.ParamReader;
+import com.vertica.sdk.PartitionReader;
+import com.vertica.sdk.PartitionWriter;
+import com.vertica.sdk.ServerInterface;
+import com.vertica.sdk.SizedColumnTypes;
+import com.vertica.sdk.TransformFunction;
+import com.vertica.sdk.TransformFunctionFactory;
+import com.vertica.sdk.UdfException;
+import java.io.IOException;
+
+/**
+ * Transform variant of voltdbload. Rows of each Vertica partition are
+ * streamed into VoltDB and one summary row is returned per partition instead
+ * of a status per row. Takes the same parameters as voltdbload, and with a
+ * load id keeps a local checkpoint journal so a rerun of a failed load skips
+ * the leading rows of each partition that were already loaded.
+ */
+public class VoltDBPartitionLoader extends TransformFunctionFactory {
+
+    private static final long DEFAULT_CHECKPOINT_INTERVAL = 1000000;
+
+    public class PartitionLoader extends TransformFunction {
+
+        private final LoadSession m_session;
+        //Null unless the load has a load id.
+        private final CheckpointJournal m_journal;
+        //Arguments identifying the partition in the journal.
+        private final int[] m_keyColumns;
+        private final long m_interval;
+
+        public PartitionLoader(LoadSession session, CheckpointJournal journal, int[] keyColumns, long interval) {
+            m_session = session;
+            m_journal = journal;
+            m_keyColumns = keyColumns;
+            m_interval = interval;
+        }
+
+        @Override
+        public void setup(ServerInterface si, SizedColumnTypes argTypes) {
+            m_session.setup(si, argTypes);
+        }
+
+        @Override
+        public void destroy(ServerInterface si, SizedColumnTypes argTypes) {
+            m_session.close();
+            if (m_journal != null) {
+                try {
+                    m_journal.close();
+                } catch (IOException ex) {
+                    m_session.getLog().error("Failed to close checkpoint journal %s: %s", m_journal.getPath(), ex);
+                }
+            }
+        }
+
+        @Override
+        public void processPartition(ServerInterface si, PartitionReader reader, PartitionWriter writer) throws UdfException, DestroyInvocation {
+            long start = System.nanoTime();
+            long failedBefore = m_session.getErrorHandler().getFailedCount();
+            long rows = 0;
+            long queued = 0;
+            long bytes = 0;
+            String key = null;
+            long resume = 0;
+            //Leading rows of the partition that are queued.
+            long acked = 0;
+            long checkpointed = 0;
+            //Offset of the last checkpoint attempt, a failed one is retried an interval later.
+            long attempted = 0;
+            if (m_journal != null) {
+                key = m_session.partitionKey(si, reader, m_keyColumns);
+                resume = m_journal.getOffset(key);
+                acked = resume;
+                checkpointed = resume;
+                attempted = resume;
+                if (resume > 0) {
+                    m_session.getLog().info("Resuming partition %s after %d rows", key, resume);
+                }
+            }
+            boolean stopped = false;
+            do {
+                rows++;
+                if (rows <= resume || stopped) {
+                    continue;
+                }
+                //Checked once, the rest of the partition is only counted as skipped.
+                if (m_session.isStopped()) {
+                    stopped = true;
+                    continue;
+                }
+                try {
+                    //Rejected rows are counted as failed by the error handler.
+                    bytes += Math.max(0, m_session.insertRow(si, reader));
+                    queued++;
+                    acked = rows;
+                } catch (InterruptedException ex) {
+                    m_session.getLog().error("Bulkloader interrupted: %s", ex);
+                    break;
+                }
+                if (m_journal != null && acked - attempted >= m_interval) {
+                    checkpointed = checkpoint(key, acked, checkpointed);
+                    attempted = acked;
+                }
+            } while (reader.next());
+            //Wait for the partition's rows so the summary has final counts.
+            m_session.flush();
+            if (m_journal != null) {
+                checkpoint(key, acked, checkpointed);
+            }
+
+            long failed = m_session.getErrorHandler().getFailedCount() - failedBefore;
+            writer.setLong(0, rows);
+            writer.setLong(1, queued - failed);
+            writer.setLong(2, failed);
+            writer.setLong(3, rows - queued);
+            writer.setLong(4, bytes);
+            writer.setDouble(5, (System.nanoTime() - start) / 1e9);
+            writer.next();
+        }
+
+        /**
+         * Wait for the queued rows and record them in the journal. Progress
+         * is not recorded once the load stopped on a failure, a rerun starts
+         * again from the last checkpoint.
+         *
+         * @return the checkpointed offset.
+         */
+        private long checkpoint(String key, long acked, long checkpointed) {
+            if (acked == checkpointed) {
+                return checkpointed;
+            }
+            //Rows still in flight after the flush gave up may fail later.
+            if (!m_session.flush() || m_session.getErrorHandler().isStopped()) {
+                return checkpointed;
+            }
+            try {
+                m_journal.record(key, acked);
+                return acked;
+            } catch (IOException ex) {
+                //Try again after the next interval.
+                m_session.getLog().error("Failed to write checkpoint journal %s: %s", m_journal.getPath(), ex);
+                return checkpointed;
+            }
+        }
+    }
+
+    @Override
+    public TransformFunction createTransformFunction(ServerInterface si) {
+        ParamReader argReader = si.getParamReader();
+        String loadId;
+        String dir;
+        String keys;
+        long interval;
+        try {
+            loadId = argReader.getString("loadid");
+        } catch (UdfException udfex) {
+            loadId = "";
+        }
+        try {
+            dir = argReader.getString("checkpointdir");
+        } catch (UdfException udfex) {
+            dir = System.getProperty("java.io.tmpdir");
+        }
+        try {
+            keys = argReader.getString("checkpointkey");
+        } catch (UdfException udfex) {
+            keys = "";
+        }
+        try {
+            interval = argReader.getLong("checkpointinterval");
+        } catch (UdfException udfex) {
+            interval = DEFAULT_CHECKPOINT_INTERVAL;
+        }
+        if (loadId.isEmpty()) {
+            return new PartitionLoader(LoadSession.open(si, "voltdbloadpartition"), null, null, 0);
+        }
+
+        int[] keyColumns = parseKeyColumns(keys);
+        CheckpointJournal journal;
+        try {
+            journal = CheckpointJournal.open(dir, loadId);
+        } catch (IOException ex) {
+            throw new UdfException(0, "Failed to open checkpoint journal: " + ex.toString());
+        }
+        try {
+            LoadSession session = LoadSession.open(si, "voltdbloadpartition");
+            session.getLog().info("Load id: %s, Checkpoint journal: %s", loadId, journal.getPath());
+            return new PartitionLoader(session, journal, keyColumns, Math.max(1, interval));
+        } catch (UdfException ex) {
+            try {
+                journal.close();
+            } catch (IOException ioex) {
+                ;
+            }
+            throw ex;
+        }
+    }
+
+    private static int[] parseKeyColumns(String keys) {
+        if (keys.trim().isEmpty()) {
+            throw new UdfException(0, "checkpointkey must list the arguments the query is partitioned by");
+        }
+        return LoadSession.parsePositions("checkpointkey", keys);
+    }
+
+    @Override
+    public void getPrototype(ServerInterface si, ColumnTypes argTypes, ColumnTypes returnType) {
+        argTypes.addAny();
+        returnType.addInt();
+        returnType.addInt();
+        returnType.addInt();
+        returnType.addInt();
+        returnType.addInt();
+        returnType.addFloat();
+    }
+
+    @Override
+    public void getReturnType(ServerInterface si, SizedColumnTypes argTypes, SizedColumnTypes returnType) {
+        returnType.addInt("rows");
+        returnType.addInt("loaded");
+        returnType.addInt("failed");
+        returnType.addInt("skipped");
+        returnType.addInt("bytes");
+        returnType.addFloat("elapsed_sec");
+    }
+
+    @Override
+    public void getParameterType(ServerInterface si, SizedColumnTypes parameterTypes) {
+        LoadSession.addParameterTypes(parameterTypes);
+        parameterTypes.addVarchar(128, "loadid");
+        parameterTypes.addVarchar(1024, "checkpointdir");
+        parameterTypes.addVarchar(256, "checkpointkey");
+        parameterTypes.addInt("checkpointinterval");
+    }
+}
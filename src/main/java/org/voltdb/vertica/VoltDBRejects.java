@@ -0,0 +1,135 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import com.vertica.sdk.ColumnTypes;
+import com.vertica.sdk.DestroyInvocation;
+import com.vertica.sdk.PartitionReader;
+import com.vertica.sdk.PartitionWriter;
+import com.vertica.sdk.ServerInterface;
+import com.vertica.sdk.SizedColumnTypes;
+import com.vertica.sdk.TransformFunction;
+import com.vertica.sdk.TransformFunctionFactory;
+import com.vertica.sdk.UdfException;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.List;
+
+/**
+ * Reads back the rows written to a voltdbload reject file on the node it
+ * runs on, one row per rejected row. The values are returned as a CSV line
+ * in argument order so they can be parsed or loaded again.
+ */
+public class VoltDBRejects extends TransformFunctionFactory {
+
+    private static final int MAX_ERROR = 4096;
+    private static final int MAX_ROW = 65000;
+
+    public class RejectsFunction extends TransformFunction {
+
+        @Override
+        public void processPartition(ServerInterface si, PartitionReader reader, PartitionWriter writer) throws UdfException, DestroyInvocation {
+            String path = si.getParamReader().getString("rejectfile");
+            String node = si.getCurrentNodeName();
+            RejectFile.Reader rejects;
+            try {
+                rejects = new RejectFile.Reader(path);
+            } catch (NoSuchFileException ex) {
+                //No rows were rejected on this node.
+                return;
+            } catch (IOException ex) {
+                throw new UdfException(0, "Failed to read reject file " + path + ": " + ex.toString());
+            }
+            try {
+                StringBuilder row = new StringBuilder();
+                List<String> fields;
+                while ((fields = rejects.next()) != null) {
+                    if (fields.size() < RejectFile.HEADER_FIELDS) {
+                        //Partial record of an interrupted write.
+                        continue;
+                    }
+                    row.setLength(0);
+                    for (int i = RejectFile.HEADER_FIELDS; i < fields.size(); i++) {
+                        if (i > RejectFile.HEADER_FIELDS) {
+                            row.append(',');
+                        }
+                        RejectFile.appendField(row, fields.get(i));
+                    }
+                    writer.setString(0, node);
+                    writer.setLong(1, Long.parseLong(fields.get(0)));
+                    writer.setLong(2, Long.parseLong(fields.get(1)));
+                    writer.setLong(3, Long.parseLong(fields.get(2)));
+                    if (fields.get(3) == null) {
+                        writer.setStringNull(4);
+                    } else {
+                        writer.setString(4, VoltDBLookup.truncate(fields.get(3), MAX_ERROR));
+                    }
+                    writer.setString(5, VoltDBLookup.truncate(row.toString(), MAX_ROW));
+                    writer.next();
+                }
+            } catch (IOException ex) {
+                throw new UdfException(0, "Failed to read reject file " + path + ": " + ex.toString());
+            } catch (NumberFormatException ex) {
+                throw new UdfException(0, "Not a reject file " + path + ": " + ex.toString());
+            } finally {
+                try {
+                    rejects.close();
+                } catch (IOException ex) {
+                    ;
+                }
+            }
+        }
+    }
+
+    @Override
+    public TransformFunction createTransformFunction(ServerInterface si) {
+        return new RejectsFunction();
+    }
+
+    @Override
+    public void getPrototype(ServerInterface si, ColumnTypes argTypes, ColumnTypes returnType) {
+        //Arguments are ignored, use e.g. node_name to partition by node.
+        argTypes.addAny();
+        returnType.addVarchar();
+        returnType.addInt();
+        returnType.addInt();
+        returnType.addInt();
+        returnType.addVarchar();
+        returnType.addVarchar();
+    }
+
+    @Override
+    public void getReturnType(ServerInterface si, SizedColumnTypes argTypes, SizedColumnTypes returnType) {
+        returnType.addVarchar(128, "node");
+        returnType.addInt("id");
+        returnType.addInt("line");
+        returnType.addInt("status");
+        returnType.addVarchar(MAX_ERROR, "error");
+        returnType.addVarchar(MAX_ROW, "row");
+    }
+
+    @Override
+    public void getParameterType(ServerInterface si, SizedColumnTypes parameterTypes) {
+        parameterTypes.addVarchar(1024, "rejectfile");
+    }
+}
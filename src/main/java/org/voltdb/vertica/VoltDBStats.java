@@ -0,0 +1,87 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import com.vertica.sdk.ColumnTypes;
+import com.vertica.sdk.DestroyInvocation;
+import com.vertica.sdk.PartitionReader;
+import com.vertica.sdk.PartitionWriter;
+import com.vertica.sdk.ServerInterface;
+import com.vertica.sdk.SizedColumnTypes;
+import com.vertica.sdk.TransformFunction;
+import com.vertica.sdk.TransformFunctionFactory;
+import com.vertica.sdk.UdfException;
+import java.util.Map;
+
+/**
+ * Returns the metrics of recent voltdbload and voltdbcall invocations in the
+ * UDx JVM of the node it runs on, one row per metric.
+ */
+public class VoltDBStats extends TransformFunctionFactory {
+
+    public class StatsFunction extends TransformFunction {
+
+        @Override
+        public void processPartition(ServerInterface si, PartitionReader reader, PartitionWriter writer) throws UdfException, DestroyInvocation {
+            String node = si.getCurrentNodeName();
+            for (LoadStats stats : LoadStats.recent()) {
+                for (Map.Entry<String, Double> e : stats.snapshot().entrySet()) {
+                    writer.setString(0, node);
+                    writer.setLong(1, stats.getId());
+                    writer.setString(2, stats.getFunction());
+                    writer.setString(3, stats.getTarget());
+                    writer.setString(4, e.getKey());
+                    writer.setDouble(5, e.getValue());
+                    writer.next();
+                }
+            }
+        }
+    }
+
+    @Override
+    public TransformFunction createTransformFunction(ServerInterface si) {
+        return new StatsFunction();
+    }
+
+    @Override
+    public void getPrototype(ServerInterface si, ColumnTypes argTypes, ColumnTypes returnType) {
+        //Arguments are ignored, use e.g. node_name to partition by node.
+        argTypes.addAny();
+        returnType.addVarchar();
+        returnType.addInt();
+        returnType.addVarchar();
+        returnType.addVarchar();
+        returnType.addVarchar();
+        returnType.addFloat();
+    }
+
+    @Override
+    public void getReturnType(ServerInterface si, SizedColumnTypes argTypes, SizedColumnTypes returnType) {
+        returnType.addVarchar(128, "node");
+        returnType.addInt("id");
+        returnType.addVarchar(32, "function");
+        returnType.addVarchar(1024, "target");
+        returnType.addVarchar(64, "metric");
+        returnType.addFloat("value");
+    }
+}
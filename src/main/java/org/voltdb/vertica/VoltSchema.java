@@ -0,0 +1,145 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.voltdb.VoltTable;
+import org.voltdb.VoltType;
+import org.voltdb.client.Client;
+
+/**
+ * Column types of VoltDB tables and procedure parameters, read from
+ * the @SystemCatalog system procedure. Results are cached in the UDx JVM
+ * for a short time so invocations started together only ask once.
+ */
+final class VoltSchema {
+
+    private static final long CACHE_TTL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    //Guarded by VoltSchema.class
+    private static final Map<String, Entry> s_cache = new HashMap<String, Entry>();
+
+    private static final class Entry {
+        private final VoltType[] m_types;
+        private final long m_fetched;
+
+        private Entry(VoltType[] types, long fetched) {
+            m_types = types;
+            m_fetched = fetched;
+        }
+    }
+
+    private VoltSchema() {
+    }
+
+    /**
+     * @return types of the table columns in order, null if the table does
+     * not exist.
+     */
+    public static VoltType[] tableColumns(String servers, Client client, String table) throws Exception {
+        String key = servers + "|table|" + table.toUpperCase();
+        Entry entry = cached(key);
+        if (entry == null) {
+            VoltTable columns = client.callProcedure("@SystemCatalog", "COLUMNS").getResults()[0];
+            entry = cache(key, collect(columns, "TABLE_NAME", table));
+        }
+        return entry.m_types;
+    }
+
+    /**
+     * @return types of the procedure parameters in order, null if they are
+     * unknown. Default insert and upsert procedures take the table columns.
+     */
+    public static VoltType[] procedureParameters(String servers, Client client, String procedure) throws Exception {
+        String key = servers + "|procedure|" + procedure.toUpperCase();
+        Entry entry = cached(key);
+        if (entry == null) {
+            VoltTable params = client.callProcedure("@SystemCatalog", "PROCEDURECOLUMNS").getResults()[0];
+            VoltType[] types = collect(params, "PROCEDURE_NAME", procedure);
+            if (types == null) {
+                //Default procedures are not listed in the catalog.
+                int dot = procedure.lastIndexOf('.');
+                String suffix = dot < 0 ? "" : procedure.substring(dot + 1);
+                if (suffix.equalsIgnoreCase("insert") || suffix.equalsIgnoreCase("upsert")) {
+                    types = tableColumns(servers, client, procedure.substring(0, dot));
+                }
+            }
+            entry = cache(key, types);
+        }
+        return entry.m_types;
+    }
+
+    private static synchronized Entry cached(String key) {
+        Entry entry = s_cache.get(key);
+        if (entry != null && System.currentTimeMillis() - entry.m_fetched > CACHE_TTL_MS) {
+            s_cache.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    private static synchronized Entry cache(String key, VoltType[] types) {
+        Entry entry = new Entry(types, System.currentTimeMillis());
+        s_cache.put(key, entry);
+        return entry;
+    }
+
+    private static VoltType[] collect(VoltTable catalog, String nameColumn, String name) {
+        List<VoltType> types = new ArrayList<VoltType>();
+        while (catalog.advanceRow()) {
+            if (!catalog.getString(nameColumn).equalsIgnoreCase(name)) {
+                continue;
+            }
+            int position = (int) catalog.getLong("ORDINAL_POSITION") - 1;
+            while (types.size() <= position) {
+                types.add(null);
+            }
+            types.set(position, typeFromName(catalog.getString("TYPE_NAME")));
+        }
+        return types.isEmpty() ? null : types.toArray(new VoltType[types.size()]);
+    }
+
+    /**
+     * @return the VoltDB type for a catalog type name, null for types that
+     * values are passed to unchanged.
+     */
+    static VoltType typeFromName(String name) {
+        if (name == null) {
+            return null;
+        }
+        name = name.toUpperCase();
+        if (name.equals("VARCHAR")) {
+            return VoltType.STRING;
+        }
+        for (VoltType type : VoltType.values()) {
+            if (type.name().equals(name)) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
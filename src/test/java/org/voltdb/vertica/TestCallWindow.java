@@ -0,0 +1,122 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import org.junit.Test;
+import org.voltdb.client.ClientResponse;
+
+public class TestCallWindow {
+
+    //A proxy so the test does not depend on the client interface of a VoltDB version.
+    private static ClientResponse response(final byte status, final String error, final long nanos) {
+        return (ClientResponse) Proxy.newProxyInstance(TestCallWindow.class.getClassLoader(),
+                new Class<?>[] { ClientResponse.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("getStatus")) {
+                    return status;
+                } else if (name.equals("getStatusString")) {
+                    return error;
+                } else if (name.equals("getClientRoundtripNanos")) {
+                    return nanos;
+                }
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void testRetiresInIssueOrder() throws Exception {
+        CallWindow window = new CallWindow(4);
+        CallWindow.SlotCallback first = window.issue();
+        CallWindow.SlotCallback second = window.issue();
+        CallWindow.SlotCallback third = window.issue();
+        assertEquals(3, window.getOutstanding());
+
+        //Responses arrive out of order.
+        third.clientCallback(response(ClientResponse.SUCCESS, null, 30));
+        second.fail("not queued");
+        first.clientCallback(response(ClientResponse.USER_ABORT, "aborted", 10));
+
+        assertFalse(window.retire());
+        assertEquals("aborted", window.lastError());
+        assertEquals(10, window.lastLatencyNanos());
+        assertFalse(window.retire());
+        assertEquals("not queued", window.lastError());
+        assertEquals(0, window.lastLatencyNanos());
+        assertTrue(window.retire());
+        assertNull(window.lastError());
+        assertEquals(30, window.lastLatencyNanos());
+        assertTrue(window.isEmpty());
+    }
+
+    @Test
+    public void testLimitBoundsOutstandingCalls() throws Exception {
+        CallWindow window = new CallWindow(4);
+        window.setLimit(2);
+        window.issue().fail("x");
+        assertFalse(window.isFull());
+        window.issue().fail("x");
+        assertTrue(window.isFull());
+        window.retire();
+        assertFalse(window.isFull());
+
+        //The limit never exceeds the window size or drops below one.
+        window.setLimit(100);
+        window.issue();
+        window.issue();
+        window.issue();
+        assertTrue(window.isFull());
+        window.setLimit(0);
+        assertTrue(window.isFull());
+    }
+
+    @Test(timeout = 30000)
+    public void testRetireWaitsForTheResponse() throws Exception {
+        CallWindow window = new CallWindow(1);
+        final CallWindow.SlotCallback slot = window.issue();
+        Thread callback = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                    slot.clientCallback(response(ClientResponse.SUCCESS, null, 5));
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        };
+        callback.start();
+        assertTrue(window.retire());
+        callback.join();
+    }
+}
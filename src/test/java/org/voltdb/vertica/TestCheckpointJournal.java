@@ -0,0 +1,133 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestCheckpointJournal {
+
+    private File m_dir;
+
+    @Before
+    public void setUp() throws IOException {
+        m_dir = File.createTempFile("ckpt", "");
+        m_dir.delete();
+        m_dir.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : m_dir.listFiles()) {
+            file.delete();
+        }
+        m_dir.delete();
+    }
+
+    @Test
+    public void testLastRecordOfAPartitionWins() throws IOException {
+        String a = CheckpointJournal.encodeKey(Arrays.asList(1L, "x,y"));
+        String b = CheckpointJournal.encodeKey(Arrays.asList(2L, "z"));
+        CheckpointJournal journal = CheckpointJournal.open(m_dir.getPath(), "load");
+        assertEquals(0, journal.getOffset(a));
+        journal.record(a, 100);
+        journal.record(b, 50);
+        journal.record(a, 200);
+        journal.close();
+
+        journal = CheckpointJournal.open(m_dir.getPath(), "load");
+        assertEquals(200, journal.getOffset(a));
+        assertEquals(50, journal.getOffset(b));
+        assertEquals(0, journal.getOffset(CheckpointJournal.encodeKey(Arrays.asList(3L, "z"))));
+        journal.close();
+    }
+
+    @Test
+    public void testLoadsHaveSeparateJournals() throws IOException {
+        String key = CheckpointJournal.encodeKey(Arrays.asList("p"));
+        CheckpointJournal journal = CheckpointJournal.open(m_dir.getPath(), "first");
+        journal.record(key, 10);
+        journal.close();
+        journal = CheckpointJournal.open(m_dir.getPath(), "second");
+        assertEquals(0, journal.getOffset(key));
+        journal.close();
+    }
+
+    @Test
+    public void testPartialRecordIsIgnored() throws IOException {
+        String key = CheckpointJournal.encodeKey(Arrays.asList(7L));
+        CheckpointJournal journal = CheckpointJournal.open(m_dir.getPath(), "partial");
+        journal.record(key, 10);
+        journal.close();
+        //An interrupted write leaves a record without its newline.
+        FileOutputStream out = new FileOutputStream(new File(m_dir, "partial.ckpt"), true);
+        out.write("2".getBytes("UTF-8"));
+        out.close();
+
+        journal = CheckpointJournal.open(m_dir.getPath(), "partial");
+        assertEquals(10, journal.getOffset(key));
+        journal.close();
+    }
+
+    @Test
+    public void testRecordAfterPartialRecordIsNotMisread() throws IOException {
+        String key = CheckpointJournal.encodeKey(Arrays.asList(7L));
+        CheckpointJournal journal = CheckpointJournal.open(m_dir.getPath(), "torn");
+        journal.record(key, 10);
+        journal.close();
+        FileOutputStream out = new FileOutputStream(new File(m_dir, "torn.ckpt"), true);
+        out.write("12".getBytes("UTF-8"));
+        out.close();
+
+        //The next record is joined to the partial one, it must not read back as 12345.
+        journal = CheckpointJournal.open(m_dir.getPath(), "torn");
+        journal.record(key, 345);
+        journal.close();
+        journal = CheckpointJournal.open(m_dir.getPath(), "torn");
+        assertEquals(10, journal.getOffset(key));
+        journal.record(key, 400);
+        journal.close();
+
+        journal = CheckpointJournal.open(m_dir.getPath(), "torn");
+        assertEquals(400, journal.getOffset(key));
+        journal.close();
+    }
+
+    @Test
+    public void testInvalidLoadIdIsRefused() {
+        try {
+            CheckpointJournal.open(m_dir.getPath(), "../escape");
+            fail("Load id with a path was accepted");
+        } catch (IOException ex) {
+            //Expected
+        }
+    }
+}
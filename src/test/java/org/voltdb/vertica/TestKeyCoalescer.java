@@ -0,0 +1,102 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TestKeyCoalescer {
+
+    @Test
+    public void testLongKeySupersedesEarlierRow() {
+        KeyCoalescer coalescer = new KeyCoalescer(new int[] { 0 });
+        assertEquals(-1, coalescer.put(new Object[] { 1L, "a" }, 0));
+        assertEquals(-1, coalescer.put(new Object[] { 2L, "b" }, 1));
+        assertEquals(0, coalescer.put(new Object[] { 1L, "c" }, 2));
+        assertEquals(2, coalescer.put(new Object[] { 1L, "d" }, 3));
+        assertEquals(1, coalescer.put(new Object[] { 2, "e" }, 4));
+    }
+
+    @Test
+    public void testNullLongKeyIsNeverCoalesced() {
+        KeyCoalescer coalescer = new KeyCoalescer(new int[] { 0 });
+        assertEquals(-1, coalescer.put(new Object[] { Long.MIN_VALUE }, 0));
+        assertEquals(-1, coalescer.put(new Object[] { Long.MIN_VALUE }, 1));
+        assertEquals(-1, coalescer.put(new Object[] { null }, 2));
+        assertEquals(-1, coalescer.put(new Object[] { null }, 3));
+    }
+
+    @Test
+    public void testNullFloatKeyIsNeverCoalesced() {
+        KeyCoalescer coalescer = new KeyCoalescer(new int[] { 0 });
+        assertEquals(-1, coalescer.put(new Object[] { Double.NaN }, 0));
+        assertEquals(-1, coalescer.put(new Object[] { Double.NaN }, 1));
+        assertEquals(-1, coalescer.put(new Object[] { 1.5d }, 2));
+        assertEquals(2, coalescer.put(new Object[] { 1.5d }, 3));
+
+        KeyCoalescer composite = new KeyCoalescer(new int[] { 0, 1 });
+        assertEquals(-1, composite.put(new Object[] { "a", Double.NaN }, 0));
+        assertEquals(-1, composite.put(new Object[] { "a", Double.NaN }, 1));
+    }
+
+    @Test
+    public void testNullInCompositeKeyIsNeverCoalesced() {
+        KeyCoalescer coalescer = new KeyCoalescer(new int[] { 0, 1 });
+        assertEquals(-1, coalescer.put(new Object[] { "a", Long.MIN_VALUE }, 0));
+        assertEquals(-1, coalescer.put(new Object[] { "a", Long.MIN_VALUE }, 1));
+        assertEquals(-1, coalescer.put(new Object[] { "a", 1L }, 2));
+        assertEquals(2, coalescer.put(new Object[] { "a", 1L }, 3));
+    }
+
+    @Test
+    public void testBinaryKeysCompareByContent() {
+        KeyCoalescer coalescer = new KeyCoalescer(new int[] { 0 });
+        assertEquals(-1, coalescer.put(new Object[] { new byte[] { 1, 2 } }, 0));
+        assertEquals(0, coalescer.put(new Object[] { new byte[] { 1, 2 } }, 1));
+        assertEquals(-1, coalescer.put(new Object[] { new byte[] { 1, 3 } }, 2));
+    }
+
+    @Test
+    public void testResetForgetsPreviousBlock() {
+        KeyCoalescer coalescer = new KeyCoalescer(new int[] { 0 });
+        assertEquals(-1, coalescer.put(new Object[] { 7L }, 0));
+        coalescer.reset();
+        assertEquals(-1, coalescer.put(new Object[] { 7L }, 0));
+        assertEquals(0, coalescer.put(new Object[] { 7L }, 1));
+    }
+
+    @Test
+    public void testManyKeysGrowTheMap() {
+        KeyCoalescer coalescer = new KeyCoalescer(new int[] { 0 });
+        for (int block = 0; block < 3; block++) {
+            coalescer.reset();
+            for (int i = 0; i < 5000; i++) {
+                assertEquals(-1, coalescer.put(new Object[] { (long) i * 1024 }, i));
+            }
+            for (int i = 0; i < 5000; i++) {
+                assertEquals(i, coalescer.put(new Object[] { (long) i * 1024 }, 5000 + i));
+            }
+        }
+    }
+}
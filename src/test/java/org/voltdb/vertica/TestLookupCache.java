@@ -0,0 +1,88 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class TestLookupCache {
+
+    //The cache is shared by the JVM, every test uses its own scope.
+    private static LookupCache.Key key(String scope, Object... params) {
+        return new LookupCache.Key(scope, params);
+    }
+
+    @Test
+    public void testPutAndGet() {
+        assertSame(LookupCache.NOT_FOUND, LookupCache.get(key("get", 1L)));
+        LookupCache.put(key("get", 1L), "one", 60000, 100);
+        assertEquals("one", LookupCache.get(key("get", 1L)));
+        assertSame(LookupCache.NOT_FOUND, LookupCache.get(key("get", 2L)));
+        assertSame(LookupCache.NOT_FOUND, LookupCache.get(key("other", 1L)));
+    }
+
+    @Test
+    public void testMissingRowIsCached() {
+        LookupCache.put(key("missing", "k"), null, 60000, 100);
+        assertNull(LookupCache.get(key("missing", "k")));
+    }
+
+    @Test
+    public void testBinaryParametersCompareByContent() {
+        LookupCache.put(key("binary", new byte[] { 1, 2 }), "b", 60000, 100);
+        assertEquals("b", LookupCache.get(key("binary", new byte[] { 1, 2 })));
+        assertSame(LookupCache.NOT_FOUND, LookupCache.get(key("binary", new byte[] { 2, 1 })));
+    }
+
+    @Test
+    public void testEntriesExpire() throws Exception {
+        LookupCache.put(key("expire", 1L), "one", 1, 100);
+        Thread.sleep(20);
+        assertSame(LookupCache.NOT_FOUND, LookupCache.get(key("expire", 1L)));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        LookupCache.put(key("lru", 1L), "one", 60000, 2);
+        LookupCache.put(key("lru", 2L), "two", 60000, 2);
+        //Touch the first entry so the second is the least recently used.
+        assertEquals("one", LookupCache.get(key("lru", 1L)));
+        LookupCache.put(key("lru", 3L), "three", 60000, 2);
+        assertEquals("one", LookupCache.get(key("lru", 1L)));
+        assertSame(LookupCache.NOT_FOUND, LookupCache.get(key("lru", 2L)));
+        assertEquals("three", LookupCache.get(key("lru", 3L)));
+    }
+
+    @Test
+    public void testDisabledCacheKeepsNothing() {
+        LookupCache.put(key("disabled", 1L), "one", 60000, 0);
+        assertSame(LookupCache.NOT_FOUND, LookupCache.get(key("disabled", 1L)));
+        LookupCache.put(key("disabled", 2L), "two", 0, 100);
+        assertSame(LookupCache.NOT_FOUND, LookupCache.get(key("disabled", 2L)));
+        assertFalse(key("disabled", 1L).equals(key("disabled", 2L)));
+    }
+}
@@ -0,0 +1,149 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestRejectFile {
+
+    private File m_file;
+
+    @Before
+    public void setUp() throws IOException {
+        m_file = File.createTempFile("rejects", ".csv");
+    }
+
+    @After
+    public void tearDown() {
+        m_file.delete();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        RejectFile rejects = RejectFile.open(m_file.getPath(), 42);
+        rejects.write(0, 0, "does not fit", new Object[] { 1L, "plain", new byte[] { 0x0A, (byte) 0xFF } });
+        rejects.write(1, -2, "error, with \"quotes\"", new Object[] { "a,b", "line\nbreak", "\u00e9t\u00e9" });
+        rejects.write(2, -1, null, null);
+        rejects.write(3, 0, "", new Object[] { null, "", "x" });
+        assertEquals(4, rejects.getWritten());
+        rejects.close();
+
+        RejectFile.Reader reader = new RejectFile.Reader(m_file.getPath());
+        assertEquals(Arrays.asList("42", "0", "0", "does not fit", "1", "plain", "0AFF"), reader.next());
+        assertEquals(Arrays.asList("42", "1", "-2", "error, with \"quotes\"", "a,b", "line\nbreak", "\u00e9t\u00e9"), reader.next());
+        List<String> last = reader.next();
+        assertEquals(Arrays.asList("42", "2", "-1", null), last);
+        assertEquals(Arrays.asList("42", "3", "0", "", null, "", "x"), reader.next());
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void testWritersAppendToTheSameFile() throws IOException {
+        RejectFile first = RejectFile.open(m_file.getPath(), 1);
+        RejectFile second = RejectFile.open(m_file.getPath(), 2);
+        first.write(0, 0, "e", new Object[] { "x" });
+        second.write(0, 0, "e", new Object[] { "y" });
+        first.close();
+        second.close();
+
+        RejectFile.Reader reader = new RejectFile.Reader(m_file.getPath());
+        int records = 0;
+        while (reader.next() != null) {
+            records++;
+        }
+        reader.close();
+        assertEquals(2, records);
+    }
+
+    @Test
+    public void testLargeRecordsAreWrittenWhole() throws IOException {
+        char[] wide = new char[100 * 1024];
+        Arrays.fill(wide, 'w');
+        RejectFile rejects = RejectFile.open(m_file.getPath(), 7);
+        rejects.write(0, 0, "wide", new Object[] { new String(wide) });
+        rejects.write(1, 0, "narrow", new Object[] { "n" });
+        rejects.close();
+
+        RejectFile.Reader reader = new RejectFile.Reader(m_file.getPath());
+        assertEquals(new String(wide), reader.next().get(4));
+        assertEquals("n", reader.next().get(4));
+        reader.close();
+    }
+
+    @Test
+    public void testRecordsAreWrittenBeforeClose() throws IOException {
+        RejectFile rejects = RejectFile.open(m_file.getPath(), 3);
+        for (int i = 0; i < RejectFile.FLUSH_RECORDS; i++) {
+            rejects.write(i, 0, "e", new Object[] { i });
+        }
+        assertEquals(RejectFile.FLUSH_RECORDS, countRecords());
+        rejects.write(RejectFile.FLUSH_RECORDS, 0, "e", null);
+        rejects.close();
+        assertEquals(RejectFile.FLUSH_RECORDS + 1, countRecords());
+    }
+
+    @Test
+    public void testDecimalsAreWrittenPlain() throws IOException {
+        RejectFile rejects = RejectFile.open(m_file.getPath(), 5);
+        rejects.write(0, 0, "e", new Object[] { new BigDecimal("1E+3"), new BigDecimal("1E-8"), Long.MIN_VALUE });
+        rejects.close();
+
+        RejectFile.Reader reader = new RejectFile.Reader(m_file.getPath());
+        assertEquals(Arrays.asList("5", "0", "0", "e", "1000", "0.00000001", null), reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void testBufferedRecordsAreFlushedWithoutClose() throws Exception {
+        RejectFile rejects = RejectFile.open(m_file.getPath(), 6);
+        rejects.write(0, 0, "e", new Object[] { "x" });
+        long deadline = System.currentTimeMillis() + 10000;
+        while (countRecords() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(1, countRecords());
+        rejects.close();
+        assertEquals(1, countRecords());
+    }
+
+    private int countRecords() throws IOException {
+        RejectFile.Reader reader = new RejectFile.Reader(m_file.getPath());
+        int records = 0;
+        while (reader.next() != null) {
+            records++;
+        }
+        reader.close();
+        return records;
+    }
+}
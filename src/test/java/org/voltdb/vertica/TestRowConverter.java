@@ -0,0 +1,295 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.vertica.sdk.PartitionReader;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import org.junit.Test;
+import org.voltdb.VoltType;
+import org.voltdb.types.TimestampType;
+import org.voltdb.vertica.RowConverter.Coercion;
+import org.voltdb.vertica.RowConverter.Extractor;
+
+public class TestRowConverter {
+
+    //A single row of values, null values read as Vertica reads NULLs.
+    private static class RowReader extends PartitionReader {
+        private final Object[] m_vals;
+
+        RowReader(Object... vals) {
+            m_vals = vals;
+        }
+
+        @Override
+        public Timestamp getTimestamp(int i) {
+            return (Timestamp) m_vals[i];
+        }
+
+        @Override
+        public boolean isDateNull(int i) {
+            return m_vals[i] == null;
+        }
+
+        @Override
+        public Date getDate(int i) {
+            return (Date) m_vals[i];
+        }
+
+        @Override
+        public boolean isTimeNull(int i) {
+            return m_vals[i] == null;
+        }
+
+        @Override
+        public Time getTime(int i) {
+            return (Time) m_vals[i];
+        }
+
+        @Override
+        public boolean isNumericNull(int i) {
+            return m_vals[i] == null;
+        }
+
+        @Override
+        public BigDecimal getNumeric(int i) {
+            return (BigDecimal) m_vals[i];
+        }
+
+        @Override
+        public boolean getBoolean(int i) {
+            return (Boolean) m_vals[i];
+        }
+
+        @Override
+        public boolean isVarbinaryNull(int i) {
+            return m_vals[i] == null;
+        }
+
+        @Override
+        public ByteBuffer getVarbinary(int i) {
+            return (ByteBuffer) m_vals[i];
+        }
+    }
+
+    //Microseconds of a wall clock time read as UTC, which is how VoltDB parses a timestamp string.
+    private static long wallMicros(int year, int month, int day, int hour, int minute, int second, int micros) {
+        Calendar utc = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        utc.clear();
+        utc.set(year, month - 1, day, hour, minute, second);
+        return utc.getTimeInMillis() * 1000 + micros;
+    }
+
+    @Test
+    public void testTimestampKeepsWallClockMicros() {
+        Timestamp ts = Timestamp.valueOf("2017-06-01 12:34:56.123456");
+        assertEquals(wallMicros(2017, 6, 1, 12, 34, 56, 123456), RowConverter.toTimestampType(ts).getTime());
+        assertEquals(new TimestampType(wallMicros(2017, 6, 1, 12, 34, 56, 123456)),
+                Extractor.TIMESTAMP.get(new RowReader(ts), 0));
+        assertNull(Extractor.TIMESTAMP.get(new RowReader((Object) null), 0));
+    }
+
+    @Test
+    public void testPreEpochTimestampRoundsTowardsThePast() {
+        Timestamp ts = Timestamp.valueOf("1969-12-31 23:59:59.999999");
+        assertEquals(wallMicros(1969, 12, 31, 23, 59, 59, 999999), RowConverter.toTimestampType(ts).getTime());
+        ts = Timestamp.valueOf("1960-02-29 00:00:00.5");
+        assertEquals(wallMicros(1960, 2, 29, 0, 0, 0, 500000), RowConverter.toTimestampType(ts).getTime());
+    }
+
+    @Test
+    public void testDateIsWallClockMidnightInMicros() {
+        assertEquals(new TimestampType(wallMicros(2018, 3, 4, 0, 0, 0, 0)),
+                Extractor.DATE.get(new RowReader(Date.valueOf("2018-03-04")), 0));
+        assertEquals(new TimestampType(wallMicros(1969, 7, 20, 0, 0, 0, 0)),
+                Extractor.DATE.get(new RowReader(Date.valueOf("1969-07-20")), 0));
+        assertNull(Extractor.DATE.get(new RowReader((Object) null), 0));
+    }
+
+    @Test
+    public void testNullFloatCoercesToNull() {
+        assertNull(Coercion.forTarget(Extractor.FLOAT, VoltType.DECIMAL).apply(Double.NaN));
+        assertNull(Coercion.forTarget(Extractor.FLOAT, VoltType.FLOAT).apply(Double.NaN));
+        assertNull(Coercion.forTarget(Extractor.FLOAT, VoltType.STRING).apply(Double.NaN));
+    }
+
+    @Test
+    public void testFloatCoercesToDecimal() {
+        assertEquals(new BigDecimal("1.5"), Coercion.forTarget(Extractor.FLOAT, VoltType.DECIMAL).apply(1.5d));
+        assertEquals(2.5d, Coercion.forTarget(Extractor.FLOAT, VoltType.FLOAT).apply(2.5d));
+    }
+
+    @Test
+    public void testNullIntegerCoercesToNull() {
+        assertNull(Coercion.forTarget(Extractor.BIGINT, VoltType.INTEGER).apply(Long.MIN_VALUE));
+        assertNull(Coercion.forTarget(Extractor.BIGINT, VoltType.DECIMAL).apply(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void testTimeIsWallClockMicrosOfDay() {
+        assertEquals((13 * 3600 + 45 * 60 + 10) * 1000000L, RowConverter.toMicrosOfDay(Time.valueOf("13:45:10")));
+        assertEquals(0L, Extractor.TIME.get(new RowReader(Time.valueOf("00:00:00")), 0));
+        assertEquals((23 * 3600 + 59 * 60 + 59) * 1000000L, Extractor.TIME.get(new RowReader(Time.valueOf("23:59:59")), 0));
+        assertNull(Extractor.TIME.get(new RowReader((Object) null), 0));
+    }
+
+    @Test
+    public void testDecimalAboveVoltScaleIsRounded() {
+        assertEquals(new BigDecimal("1.123456789013"),
+                Extractor.DECIMAL_ROUNDED.get(new RowReader(new BigDecimal("1.1234567890125")), 0));
+        assertEquals(new BigDecimal("-1.123456789013"),
+                Extractor.DECIMAL_ROUNDED.get(new RowReader(new BigDecimal("-1.1234567890125")), 0));
+        assertEquals(new BigDecimal("2.500000000000"),
+                Extractor.DECIMAL_ROUNDED.get(new RowReader(new BigDecimal("2.5")), 0));
+        assertNull(Extractor.DECIMAL_ROUNDED.get(new RowReader((Object) null), 0));
+        assertEquals(new BigDecimal("3.25"), Extractor.DECIMAL.get(new RowReader(new BigDecimal("3.25")), 0));
+        assertNull(Extractor.DECIMAL.get(new RowReader((Object) null), 0));
+        //Doubles coerced to DECIMAL are rounded the same way.
+        assertEquals(new BigDecimal("0.123456789012"), Coercion.DECIMAL.apply(0.1234567890123));
+    }
+
+    @Test
+    public void testBooleanAndVarbinary() {
+        assertEquals(1, Extractor.BOOLEAN.get(new RowReader(true), 0));
+        assertEquals(0, Extractor.BOOLEAN.get(new RowReader(false), 0));
+        ByteBuffer buf = ByteBuffer.wrap(new byte[] { 1, 2, 3 });
+        assertArrayEquals(new byte[] { 1, 2, 3 }, (byte[]) Extractor.VARBINARY.get(new RowReader(buf), 0));
+        //The block's buffer is not consumed.
+        assertEquals(3, buf.remaining());
+        assertNull(Extractor.VARBINARY.get(new RowReader((Object) null), 0));
+    }
+
+    private static void assertDoesNotFit(Coercion coercion, Object val) {
+        try {
+            coercion.apply(val);
+            fail(val + " was coerced to " + coercion);
+        } catch (IllegalArgumentException ex) {
+            //Expected
+        }
+    }
+
+    @Test
+    public void testNarrowingKeepsValuesInRange() {
+        assertEquals((byte) 127, Coercion.TINYINT.apply(127L));
+        assertEquals((byte) -127, Coercion.TINYINT.apply(-127L));
+        assertEquals((short) 32767, Coercion.SMALLINT.apply(32767L));
+        assertEquals((short) -32767, Coercion.SMALLINT.apply(-32767L));
+        assertEquals(Integer.MAX_VALUE, Coercion.INTEGER.apply((long) Integer.MAX_VALUE));
+        assertEquals(-Integer.MAX_VALUE, Coercion.INTEGER.apply((long) -Integer.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, Coercion.BIGINT.apply(new BigDecimal(Long.MAX_VALUE)));
+        assertEquals((byte) 1, Coercion.TINYINT.apply(1));
+        assertEquals((short) 12, Coercion.SMALLINT.apply(new BigDecimal("12.000")));
+        assertNull(Coercion.INTEGER.apply(null));
+    }
+
+    @Test
+    public void testNarrowingRefusesValuesOutOfRange() {
+        //VoltDB reserves the minimum value of each integer type for NULL.
+        assertDoesNotFit(Coercion.TINYINT, 128L);
+        assertDoesNotFit(Coercion.TINYINT, -128L);
+        assertDoesNotFit(Coercion.SMALLINT, 32768L);
+        assertDoesNotFit(Coercion.SMALLINT, -32768L);
+        assertDoesNotFit(Coercion.INTEGER, Integer.MAX_VALUE + 1L);
+        assertDoesNotFit(Coercion.INTEGER, (long) Integer.MIN_VALUE);
+        assertDoesNotFit(Coercion.BIGINT, new BigDecimal(Long.MIN_VALUE));
+        assertDoesNotFit(Coercion.BIGINT, new BigDecimal("9223372036854775808"));
+        //Decimals with a fraction are refused instead of truncated.
+        assertDoesNotFit(Coercion.INTEGER, new BigDecimal("1.5"));
+        assertDoesNotFit(Coercion.TINYINT, new BigDecimal("1000"));
+    }
+
+    @Test
+    public void testStringOfDecimalIsPlain() {
+        assertEquals("1000", Coercion.STRING.apply(new BigDecimal("1E+3")));
+        assertEquals("0.00000001", Coercion.STRING.apply(new BigDecimal("1E-8")));
+        assertEquals("42", Coercion.STRING.apply(42L));
+        assertNull(Coercion.STRING.apply(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void testVerticaTextInvertsTheConversion() {
+        assertEquals("2017-06-01 12:34:56.123456", RowConverter.toVerticaText(Extractor.TIMESTAMP,
+                RowConverter.toTimestampType(Timestamp.valueOf("2017-06-01 12:34:56.123456"))));
+        assertEquals("1969-12-31 23:59:59.999999", RowConverter.toVerticaText(Extractor.TIMESTAMP,
+                RowConverter.toTimestampType(Timestamp.valueOf("1969-12-31 23:59:59.999999"))));
+        assertEquals("1969-07-20", RowConverter.toVerticaText(Extractor.DATE,
+                Extractor.DATE.get(new RowReader(Date.valueOf("1969-07-20")), 0)));
+        assertEquals("13:45:10.000000", RowConverter.toVerticaText(Extractor.TIME,
+                RowConverter.toMicrosOfDay(Time.valueOf("13:45:10"))));
+        //TIME and BOOLEAN after a coercion to a VoltDB column.
+        assertEquals("00:00:01.500000", RowConverter.toVerticaText(Extractor.TIME, new BigDecimal("1500000")));
+        assertEquals("t", RowConverter.toVerticaText(Extractor.BOOLEAN, 1));
+        assertEquals("f", RowConverter.toVerticaText(Extractor.BOOLEAN, "0"));
+        assertEquals("t", RowConverter.toVerticaText(Extractor.BOOLEAN, (byte) 1));
+        assertEquals("1000", RowConverter.toVerticaText(Extractor.DECIMAL, new BigDecimal("1E+3")));
+        assertEquals("0.00000001", RowConverter.toVerticaText(Extractor.FLOAT, new BigDecimal("1E-8")));
+        assertEquals("plain", RowConverter.toVerticaText(Extractor.STRING, "plain"));
+        assertNull(RowConverter.toVerticaText(Extractor.BIGINT, Long.MIN_VALUE));
+        assertNull(RowConverter.toVerticaText(Extractor.FLOAT, Double.NaN));
+        assertNull(RowConverter.toVerticaText(Extractor.STRING, null));
+    }
+
+    @Test
+    public void testTargetMatrix() {
+        Extractor[] sources = { Extractor.BIGINT, Extractor.STRING, Extractor.FLOAT, Extractor.DECIMAL,
+                Extractor.DECIMAL_ROUNDED, Extractor.VARBINARY, Extractor.TIMESTAMP, Extractor.DATE,
+                Extractor.TIME, Extractor.INTERVAL, Extractor.BOOLEAN };
+        VoltType[] targets = { VoltType.TINYINT, VoltType.SMALLINT, VoltType.INTEGER, VoltType.BIGINT,
+                VoltType.FLOAT, VoltType.DECIMAL, VoltType.STRING, VoltType.TIMESTAMP, VoltType.VARBINARY };
+        //Rows follow sources, columns follow targets, null if the source can not be loaded.
+        Coercion N = Coercion.NONE;
+        Coercion[][] expected = {
+            /* BIGINT */ { Coercion.TINYINT, Coercion.SMALLINT, Coercion.INTEGER, N, Coercion.FLOAT, Coercion.DECIMAL, Coercion.STRING, N, null },
+            /* STRING */ { N, N, N, N, N, N, N, N, N },
+            /* FLOAT */ { null, null, null, null, Coercion.FLOAT, Coercion.DECIMAL, Coercion.STRING, null, null },
+            /* DECIMAL */ { Coercion.TINYINT, Coercion.SMALLINT, Coercion.INTEGER, Coercion.BIGINT, Coercion.FLOAT, N, Coercion.STRING, null, null },
+            /* DECIMAL_ROUNDED */ { Coercion.TINYINT, Coercion.SMALLINT, Coercion.INTEGER, Coercion.BIGINT, Coercion.FLOAT, N, Coercion.STRING, null, null },
+            /* VARBINARY */ { null, null, null, null, null, null, null, null, N },
+            /* TIMESTAMP */ { null, null, null, null, null, null, Coercion.STRING, N, null },
+            /* DATE */ { null, null, null, null, null, null, Coercion.STRING, N, null },
+            /* TIME */ { Coercion.TINYINT, Coercion.SMALLINT, Coercion.INTEGER, N, Coercion.FLOAT, Coercion.DECIMAL, Coercion.STRING, null, null },
+            /* INTERVAL */ { Coercion.TINYINT, Coercion.SMALLINT, Coercion.INTEGER, N, Coercion.FLOAT, Coercion.DECIMAL, Coercion.STRING, null, null },
+            /* BOOLEAN */ { Coercion.TINYINT, Coercion.SMALLINT, Coercion.INTEGER, N, Coercion.FLOAT, Coercion.DECIMAL, Coercion.STRING, null, null },
+        };
+        for (int s = 0; s < sources.length; s++) {
+            for (int t = 0; t < targets.length; t++) {
+                assertSame(sources[s] + " to " + targets[t], expected[s][t], Coercion.forTarget(sources[s], targets[t]));
+            }
+        }
+        //Unknown targets and sources are sent unchanged.
+        assertSame(N, Coercion.forTarget(Extractor.BIGINT, null));
+        assertSame(N, Coercion.forTarget(Extractor.UNKNOWN, VoltType.INTEGER));
+    }
+}
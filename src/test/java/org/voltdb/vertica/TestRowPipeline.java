@@ -0,0 +1,107 @@
+/* This file is part of VoltDB.
+ * Copyright (C) 2008-2018 VoltDB Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ */
+package org.voltdb.vertica;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.vertica.sdk.UdfException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import org.voltdb.utils.RowWithMetaData;
+
+public class TestRowPipeline {
+
+    /**
+     * Records the line numbers each sender was handed.
+     */
+    private static class RecordingSink implements RowPipeline.Sink {
+        final List<List<Long>> m_sent = new ArrayList<List<Long>>();
+
+        RecordingSink(int senders) {
+            for (int i = 0; i < senders; i++) {
+                m_sent.add(Collections.synchronizedList(new ArrayList<Long>()));
+            }
+        }
+
+        @Override
+        public void send(int sender, RowWithMetaData row) throws Exception {
+            m_sent.get(sender).add(row.lineNumber);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testRowsOfASenderKeepTheirOrder() throws Exception {
+        RecordingSink sink = new RecordingSink(3);
+        //A small ring so the UDx thread waits on full rings.
+        RowPipeline pipeline = new RowPipeline(8, 3, sink);
+        for (long line = 0; line < 30000; line++) {
+            pipeline.put((int) (line % 3), new RowWithMetaData("row", line));
+        }
+        pipeline.await();
+        pipeline.close();
+        for (int sender = 0; sender < 3; sender++) {
+            List<Long> sent = sink.m_sent.get(sender);
+            assertEquals(10000, sent.size());
+            for (int i = 0; i < sent.size(); i++) {
+                assertEquals(i * 3L + sender, (long) sent.get(i));
+            }
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testIdleSendersWakeUpForNewRows() throws Exception {
+        RecordingSink sink = new RecordingSink(2);
+        RowPipeline pipeline = new RowPipeline(16, 2, sink);
+        for (int round = 0; round < 5; round++) {
+            //Long enough for the senders to park between blocks.
+            Thread.sleep(20);
+            pipeline.put(round % 2, new RowWithMetaData("row", round));
+            pipeline.await();
+        }
+        pipeline.close();
+        assertEquals(3, sink.m_sent.get(0).size());
+        assertEquals(2, sink.m_sent.get(1).size());
+    }
+
+    @Test(timeout = 30000)
+    public void testSenderFailureIsReported() throws Exception {
+        RowPipeline pipeline = new RowPipeline(16, 1, new RowPipeline.Sink() {
+            @Override
+            public void send(int sender, RowWithMetaData row) throws Exception {
+                throw new IllegalStateException("broken");
+            }
+        });
+        pipeline.put(0, new RowWithMetaData("row", 0));
+        try {
+            pipeline.await();
+            fail("Sender failure was not reported");
+        } catch (UdfException ex) {
+            assertTrue(ex.getMessage().contains("broken"));
+        }
+        pipeline.close();
+    }
+}
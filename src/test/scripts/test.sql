@@ -39,8 +39,9 @@ SELECT SET_CONFIG_PARAMETER('JavaBinaryForUDx','/usr/bin/java');
 CREATE LIBRARY VoltDBFunctions AS :libSfile LANGUAGE 'JAVA';
 -- Step 2: Create Functions
 CREATE FUNCTION voltdbload AS LANGUAGE 'Java' NAME 'org.voltdb.vertica.VoltDBLoader' LIBRARY VoltDBFunctions ;
+CREATE TRANSFORM FUNCTION voltdbloadpartition AS LANGUAGE 'Java' NAME 'org.voltdb.vertica.VoltDBPartitionLoader' LIBRARY VoltDBFunctions ;
 
--- Create table with all types except binary
+-- Create table with all types
 CREATE TABLE T (
     c1 BOOLEAN
     , c2 CHAR(16)
@@ -49,7 +50,7 @@ CREATE TABLE T (
     , c5 DATE
     , c6 DATETIME
     , c7 SMALLDATETIME
-    -- , c8 TIME Vertica SDK gives a Unknown type for this.
+    , c8 TIME
     , c9 TIMESTAMP
     , c10 INTERVAL
     , c11 DOUBLE PRECISION
@@ -63,23 +64,27 @@ CREATE TABLE T (
     , c19 INT8
     , c20 SMALLINT
     , c21 TINYINT
-    , c22 DECIMAL       -- DECIMAL TYPES NEED to be ::float
-    , c23 NUMERIC(4,2)       -- DECIMAL TYPES NEED to be ::float
-    , c24 NUMBER       -- DECIMAL TYPES NEED to be ::float
-    , c25 MONEY       -- DECIMAL TYPES NEED to be ::float
+    , c22 DECIMAL
+    , c23 NUMERIC(4,2)
+    , c24 NUMBER
+    , c25 MONEY
+    , c26 VARBINARY(16)
 );
 COPY T FROM STDIN DELIMITER ',';
-true,VOLT,VOLTDB,VOLTDBINC,10/10/2014,Wed Sep 3 05:45:59 EDT 2014,Wed Sep 3 05:45:59 EDT 2014,1999-12-12,10,-9999.9999,1.1,4.1234,8.12345678,-8.12345678,0,1,3,4,5,6,-9.12345678,-8.12345678,-7.12345678,100.30
+true,VOLT,VOLTDB,VOLTDBINC,10/10/2014,Wed Sep 3 05:45:59 EDT 2014,Wed Sep 3 05:45:59 EDT 2014,05:45:59,1999-12-12,10,-9999.9999,1.1,4.1234,8.12345678,-8.12345678,0,1,3,4,5,6,-9.12345678,-8.12345678,-7.12345678,100.30,VOLT
 \.
 
 SELECT * from T;
 
 -- Invoke using table option
-SELECT c1, c2, c3, voltdbload(c1, c2, c3, c4, c5, c6, c7, c9, DAY(c10), c11, c12, c13, c14, c15, c16, c17, c18, c19, c20, c21, c22::float, c23::float, c24::float,
-                      c25::float using parameters maxerrors=200, voltservers='localhost', volttable='T') FROM T;
+SELECT c1, c2, c3, voltdbload(c1, c2, c3, c4, c5, c6, c7, c8, c9, c10, c11, c12, c13, c14, c15, c16, c17, c18, c19, c20, c21, c22, c23, c24,
+                      c25, c26 using parameters maxerrors=200, voltservers='localhost', volttable='T') FROM T;
 -- Invoke using procedure option
-SELECT c1, c2, c3, voltdbload(c1, c2, c3, c4, c5, c6, c7, c9, DAY(c10), c11, c12, c13, c14, c15, c16, c17, c18, c19, c20, c21, c22::float, c23::float, c24::float,
-                      c25::float using parameters maxerrors=200, voltservers='localhost', procedure='T.insert') FROM T;
+SELECT c1, c2, c3, voltdbload(c1, c2, c3, c4, c5, c6, c7, c8, c9, c10, c11, c12, c13, c14, c15, c16, c17, c18, c19, c20, c21, c22, c23, c24,
+                      c25, c26 using parameters maxerrors=200, voltservers='localhost', procedure='T.insert') FROM T;
+-- Invoke the transform variant, one summary row per partition
+SELECT voltdbloadpartition(c1, c2, c3, c4, c5, c6, c7, c8, c9, c10, c11, c12, c13, c14, c15, c16, c17, c18, c19, c20, c21, c22, c23, c24,
+                      c25, c26 using parameters maxerrors=200, voltservers='localhost', procedure='T.insert') OVER (PARTITION BY c17) FROM T;
 
 --
 DROP TABLE T;
@@ -7,9 +7,9 @@ CREATE TABLE T (
     , c5 TIMESTAMP
     , c6 TIMESTAMP
     , c7 TIMESTAMP
-    -- , c8 TIMESTAMP -- TIME in VERTICA SDK says unknown type.
+    , c8 BIGINT -- TIME, microseconds since midnight
     , c9 TIMESTAMP
-    , c10 INT -- INTERVAL
+    , c10 BIGINT -- INTERVAL, microseconds
     , c11 DECIMAL -- DOUBLE PRECISION
     , c12 FLOAT -- FLOAT
     , c13 FLOAT -- FLOAT(4)
@@ -21,10 +21,11 @@ CREATE TABLE T (
     , c19 INT -- INT8
     , c20 SMALLINT
     , c21 TINYINT
-    , c22 FLOAT
-    , c23 FLOAT -- NUMERIC
-    , c24 FLOAT -- NUMBER
-    , c25 FLOAT -- MONEY
+    , c22 DECIMAL -- DECIMAL
+    , c23 DECIMAL -- NUMERIC
+    , c24 DECIMAL -- NUMBER
+    , c25 DECIMAL -- MONEY
+    , c26 VARBINARY(16)
 );
 PARTITION TABLE T On COLUMN c17;
 CREATE TABLE T2 (
@@ -27,6 +27,10 @@
  * 
  * Current functions:
  * voltload() - allows you to load data into VoltDB using SQL
+ * voltdbloadpartition() - voltload returning one summary row per partition
+ * voltdblookup() - columns returned by a VoltDB procedure, cached in the UDx JVM
+ * voltdbstats() - metrics of recent voltdbload, voltdbcall and voltdblookup invocations
+ * voltdbrejects() - rows written to a voltdbload reject file
  *
  */
 
@@ -40,3 +44,11 @@ CREATE LIBRARY VoltDBFunctions AS :libSfile LANGUAGE 'JAVA';
 -- Step 2: Create Functions
 CREATE FUNCTION voltdbload AS LANGUAGE 'Java' NAME 'org.voltdb.vertica.VoltDBLoader' LIBRARY VoltDBFunctions ;
 CREATE FUNCTION voltdbcall AS LANGUAGE 'Java' NAME 'org.voltdb.vertica.VoltDBCall' LIBRARY VoltDBFunctions ;
+CREATE FUNCTION voltdblookup AS LANGUAGE 'Java' NAME 'org.voltdb.vertica.VoltDBLookup' LIBRARY VoltDBFunctions ;
+CREATE TRANSFORM FUNCTION voltdbloadpartition AS LANGUAGE 'Java' NAME 'org.voltdb.vertica.VoltDBPartitionLoader' LIBRARY VoltDBFunctions ;
+CREATE TRANSFORM FUNCTION voltdbstats AS LANGUAGE 'Java' NAME 'org.voltdb.vertica.VoltDBStats' LIBRARY VoltDBFunctions ;
+CREATE TRANSFORM FUNCTION voltdbrejects AS LANGUAGE 'Java' NAME 'org.voltdb.vertica.VoltDBRejects' LIBRARY VoltDBFunctions ;
+-- Step 3: Table with rows on every node, voltdbstats and voltdbrejects run over it to read every node
+CREATE TABLE voltdb_nodes (n INT NOT NULL) SEGMENTED BY HASH(n) ALL NODES;
+INSERT INTO voltdb_nodes SELECT ROW_NUMBER() OVER () FROM system_tables a CROSS JOIN system_tables b LIMIT 4096;
+COMMIT;
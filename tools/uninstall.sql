@@ -23,4 +23,5 @@
 
 SELECT SET_CONFIG_PARAMETER('JavaBinaryForUDx','/usr/bin/java');
 
+DROP TABLE IF EXISTS voltdb_nodes;
 DROP LIBRARY VoltDBFunctions CASCADE;